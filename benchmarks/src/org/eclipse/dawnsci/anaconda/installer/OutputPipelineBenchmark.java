@@ -0,0 +1,239 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+
+/**
+ * Measures the path installer output takes from a process to an {@link InstallOutputChunkHandler}: the stream pump of the
+ * {@link ProcessSupervisor}, the error and warning marker scan of the {@link InstallTranscript}, conda's JSON
+ * progress, and dispatch of console output to a handler that queues it as the wizard's console does.
+ * <p>
+ * Run as a Java application with the host bundle and its dependencies on the classpath:
+ *
+ * <pre>
+ * OutputPipelineBenchmark [conda-json-transcript [console-transcript]]
+ * </pre>
+ *
+ * Without arguments generated transcripts of the size of a full anaconda install are used, see {@link Transcripts}.
+ * The transcripts are those recorded by a {@link TranscriptLauncher}, e.g. <code>conda-install.transcript</code>.
+ * Each benchmark is run a few times to warm up and then timed, and the throughput and the allocation rate are
+ * reported. Allocation is summed over the threads alive both before and after the timed runs: the benchmark thread
+ * and the fixed pool of the {@link ProcessSupervisor}, whose threads the warm up has started and which stay alive.
+ * Threads that end during the timed runs, the log writer of each {@link InstallTranscript}, are not counted. This is a plain harness rather than JMH, which
+ * is not part of the target platform; run it on an otherwise idle machine and compare runs of the same build.
+ */
+public final class OutputPipelineBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 5;
+	private static final int MEASURED_ITERATIONS = 10;
+
+	/**
+	 * Number of packages in the generated transcripts, about that of the anaconda metapackage
+	 */
+	private static final int PACKAGES = 190;
+
+	/**
+	 * Size of the chunks text is passed on in, that of the stream pump's buffer
+	 */
+	private static final int CHUNK_CHARS = 8192;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Written by the benchmarks so their work can not be optimised away
+	 */
+	static volatile long blackhole;
+
+	private interface Benchmark {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Counts what it is given, as cheaply as possible.
+	 */
+	private static final class CountingListener implements ProcessSupervisor.StreamListener {
+		long count;
+
+		@Override
+		public void output(char[] chars, int offset, int length) {
+			count += length + chars[offset];
+		}
+	}
+
+	/**
+	 * Queues output the way the wizard's console does before a flush on the UI thread.
+	 */
+	private static final class QueueingHandler implements InstallOutputChunkHandler {
+		private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>();
+		private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+		@Override
+		public void starting() {
+		}
+
+		@Override
+		public void output(String string) {
+			pending.add(string);
+			flushScheduled.compareAndSet(false, true);
+		}
+
+		@Override
+		public void output(char[] chars, int offset, int length) {
+			output(new String(chars, offset, length));
+		}
+
+		void flush() {
+			flushScheduled.set(false);
+			StringBuilder sb = new StringBuilder();
+			String string;
+			while ((string = pending.poll()) != null) {
+				sb.append(string);
+			}
+			blackhole += sb.length();
+		}
+	}
+
+	private OutputPipelineBenchmark() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		final byte[] conda = args.length > 0 ? Transcripts.read(new File(args[0])) : Transcripts.condaJson(PACKAGES, 1);
+		final byte[] console = args.length > 1 ? Transcripts.read(new File(args[1])) : Transcripts.console(PACKAGES, 2);
+		final char[] condaChars = new String(conda, UTF8).toCharArray();
+		final char[] consoleChars = new String(console, UTF8).toCharArray();
+		final File logDir = File.createTempFile("anaconda-benchmark", "");
+		if (!logDir.delete() || !logDir.mkdir()) {
+			throw new IOException("Failed to create " + logDir);
+		}
+
+		System.out.println("conda transcript " + conda.length + " bytes, console transcript " + console.length
+				+ " bytes");
+		System.out.println(String.format("%-18s %10s %10s %12s %12s", "benchmark", "ms/op", "MB/s", "alloc MB/s",
+				"alloc B/B"));
+
+		run("pump", conda.length, new Benchmark() {
+			@Override
+			public void run() {
+				CountingListener stdout = new CountingListener();
+				CountingListener stderr = new CountingListener();
+				ProcessSupervisor.getDefault().start(new ReplayProcess(conda, new byte[0]), null, stdout, stderr, null)
+						.waitFor();
+				blackhole += stdout.count + stderr.count;
+			}
+		});
+
+		run("markerScan", console.length, new Benchmark() {
+			@Override
+			public void run() {
+				File log = new File(logDir, InstallTranscript.LOG_FILE_NAME);
+				InstallTranscript transcript = new InstallTranscript(log);
+				InstallTranscript.Stream stream = transcript.openStream();
+				feed(consoleChars, stream);
+				transcript.close();
+				String error = stream.getError();
+				blackhole += stream.getWarningCount() + (error != null ? error.length() : 0);
+				log.delete();
+			}
+		});
+
+		run("condaProgress", conda.length, new Benchmark() {
+			@Override
+			public void run() {
+				QueueingHandler handler = new QueueingHandler();
+				CondaJsonProgress progress = new CondaJsonProgress(new NullProgressMonitor(), handler,
+						new InstallMetrics());
+				feed(condaChars, progress);
+				progress.done();
+				handler.flush();
+				blackhole += progress.isSuccess() ? 1 : 0;
+			}
+		});
+
+		run("handlerDispatch", console.length, new Benchmark() {
+			@Override
+			public void run() {
+				final QueueingHandler handler = new QueueingHandler();
+				feed(consoleChars, new ProcessSupervisor.StreamListener() {
+					@Override
+					public void output(char[] chars, int offset, int length) {
+						handler.output(chars, offset, length);
+					}
+				});
+				handler.flush();
+			}
+		});
+
+		logDir.delete();
+	}
+
+	/**
+	 * Pass the text on in chunks, as the stream pump does.
+	 */
+	private static void feed(char[] text, ProcessSupervisor.StreamListener listener) {
+		char[] buffer = new char[CHUNK_CHARS];
+		for (int offset = 0; offset < text.length; offset += CHUNK_CHARS) {
+			int length = Math.min(CHUNK_CHARS, text.length - offset);
+			System.arraycopy(text, offset, buffer, 0, length);
+			listener.output(buffer, 0, length);
+		}
+	}
+
+	private static void run(String name, long inputBytes, Benchmark benchmark) throws Exception {
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			benchmark.run();
+		}
+		System.gc();
+		Map<Long, Long> allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+			benchmark.run();
+		}
+		long nanos = System.nanoTime() - start;
+		Map<Long, Long> allocatedAfter = getAllocatedBytes();
+		long allocated = 0;
+		if (allocatedBefore != null) {
+			for (Map.Entry<Long, Long> thread : allocatedAfter.entrySet()) {
+				Long before = allocatedBefore.get(thread.getKey());
+				if (before != null) {
+					allocated += thread.getValue() - before;
+				}
+			}
+		}
+
+		double seconds = nanos / 1e9;
+		double megabytes = (double) inputBytes * MEASURED_ITERATIONS / (1024 * 1024);
+		String allocRate = allocatedBefore == null ? "n/a" : String.format("%.1f", allocated / seconds / (1024 * 1024));
+		String allocPerByte = allocatedBefore == null ? "n/a" : String.format("%.2f", (double) allocated
+				/ (inputBytes * MEASURED_ITERATIONS));
+		System.out.println(String.format("%-18s %10.2f %10.1f %12s %12s", name, nanos / 1e6 / MEASURED_ITERATIONS,
+				megabytes / seconds, allocRate, allocPerByte));
+	}
+
+	/**
+	 * @return bytes allocated so far by each live thread by its id, or <code>null</code> if the VM can not tell
+	 */
+	private static Map<Long, Long> getAllocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return null;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long[] ids = threads.getAllThreadIds();
+		long[] allocated = threads.getThreadAllocatedBytes(ids);
+		Map<Long, Long> result = new HashMap<Long, Long>();
+		for (int i = 0; i < ids.length; i++) {
+			if (allocated[i] >= 0) {
+				result.put(ids[i], allocated[i]);
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,53 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A process that has already exited, whose output streams replay recorded text.
+ */
+final class ReplayProcess extends Process {
+
+	private final InputStream stdout;
+	private final InputStream stderr;
+
+	ReplayProcess(byte[] stdout, byte[] stderr) {
+		this.stdout = new ByteArrayInputStream(stdout);
+		this.stderr = new ByteArrayInputStream(stderr);
+	}
+
+	@Override
+	public OutputStream getOutputStream() {
+		return new OutputStream() {
+			@Override
+			public void write(int b) {
+				// nothing reads stdin
+			}
+		};
+	}
+
+	@Override
+	public InputStream getInputStream() {
+		return stdout;
+	}
+
+	@Override
+	public InputStream getErrorStream() {
+		return stderr;
+	}
+
+	@Override
+	public int waitFor() {
+		return 0;
+	}
+
+	@Override
+	public int exitValue() {
+		return 0;
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
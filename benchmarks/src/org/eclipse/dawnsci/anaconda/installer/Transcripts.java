@@ -0,0 +1,102 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Transcripts of installer output to benchmark with, either recorded from a real install by a
+ * {@link TranscriptLauncher} or generated.
+ * <p>
+ * Generated transcripts have the shape and size of an install of the anaconda metapackage: a couple of hundred
+ * packages of a few KB to a few tens of MB each, downloaded in 16 KB chunks as conda 3 reports them. The same seed
+ * always generates the same transcript, so runs can be compared.
+ */
+final class Transcripts {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Size of the chunks conda reports download progress for
+	 */
+	private static final int FETCH_CHUNK = 16 * 1024;
+
+	private Transcripts() {
+	}
+
+	/**
+	 * @return what the process wrote to stdout in a transcript recorded from an install, e.g.
+	 *         <code>conda-install.transcript</code>, see {@link ProcessTranscript}
+	 */
+	static byte[] read(File file) throws IOException {
+		return ProcessTranscript.read(file).getStdout();
+	}
+
+	/**
+	 * Generate what <code>conda install --yes --json</code> prints on stdout.
+	 */
+	static byte[] condaJson(int packages, long seed) {
+		Random random = new Random(seed);
+		String[] names = packageNames(packages, random);
+		StringBuilder sb = new StringBuilder();
+		for (String name : names) {
+			// sizes spread between about 8 KB and 30 MB, most of them small
+			long size = (long) (8 * 1024 * Math.exp(random.nextDouble() * 8.2));
+			for (long progress = 0; progress < size; progress += FETCH_CHUNK) {
+				sb.append("{\"fetch\": \"").append(name).append("\", \"finished\": false, \"maxval\": ").append(size)
+						.append(", \"progress\": ").append(progress).append("}\0");
+			}
+			sb.append("{\"fetch\": \"").append(name).append("\", \"finished\": true, \"maxval\": ").append(size)
+					.append(", \"progress\": ").append(size).append("}\0");
+		}
+		// one series for extracting, one for linking
+		for (int series = 0; series < 2; series++) {
+			for (int i = 0; i < names.length; i++) {
+				sb.append("{\"name\": \"").append(names[i]).append("\", \"finished\": false, \"maxval\": ")
+						.append(names.length).append(", \"progress\": ").append(i).append("}\0");
+			}
+			sb.append("{\"name\": null, \"finished\": true, \"maxval\": ").append(names.length)
+					.append(", \"progress\": ").append(names.length).append("}\0");
+		}
+		sb.append("{\n  \"actions\": {\n    \"PREFIX\": \"/opt/anaconda\"\n  },\n  \"success\": true\n}\n");
+		return sb.toString().getBytes(UTF8);
+	}
+
+	/**
+	 * Generate plain console output of the size of a verbose install, with a warning every few dozen lines and an
+	 * error at the end, for the marker scan.
+	 */
+	static byte[] console(int packages, long seed) {
+		Random random = new Random(seed);
+		String[] names = packageNames(packages, random);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StringBuilder sb = new StringBuilder();
+		for (int repeat = 0; repeat < 20; repeat++) {
+			for (String name : names) {
+				sb.setLength(0);
+				sb.append("installing: ").append(name).append(" ...\n");
+				sb.append("    extracting ").append(random.nextInt(2000)).append(" files into /opt/anaconda/pkgs/")
+						.append(name).append('\n');
+				if (random.nextInt(40) == 0) {
+					sb.append("WARNING: ").append(name).append(" has no has_prefix file, prefix not replaced\n");
+				}
+				byte[] bytes = sb.toString().getBytes(UTF8);
+				out.write(bytes, 0, bytes.length);
+			}
+		}
+		byte[] error = "ERROR: File or folder already exists: /opt/anaconda\nPlease remove it.\n".getBytes(UTF8);
+		out.write(error, 0, error.length);
+		return out.toByteArray();
+	}
+
+	private static String[] packageNames(int packages, Random random) {
+		String[] names = new String[packages];
+		for (int i = 0; i < packages; i++) {
+			names[i] = "package" + i + "-" + (1 + random.nextInt(3)) + "." + random.nextInt(12) + "." + random.nextInt(9)
+					+ "-py27_" + random.nextInt(3);
+		}
+		return names;
+	}
+}
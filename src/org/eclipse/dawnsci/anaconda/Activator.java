@@ -3,7 +3,9 @@ package org.eclipse.dawnsci.anaconda;
 import java.net.URL;
 
 import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Platform;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -27,6 +29,9 @@ public class Activator implements BundleActivator {
 	@Override
 	public void start(BundleContext bundleContext) throws Exception {
 		Activator.context = bundleContext;
+		// Have recorded and existing installs ready by the time PyDev asks for interpreter providers,
+		// the scan loads the install registry
+		InstallDiscovery.getDefault().prime();
 	}
 	
 	@Override
@@ -47,4 +52,13 @@ public class Activator implements BundleActivator {
 		return licenseUrl;
 	}
 
+	/**
+	 * Return the location in the workspace metadata where this plug-in can store its files
+	 * @return path to the plug-in state location
+	 * @see Platform#getStateLocation(Bundle)
+	 */
+	public static IPath getStateLocation() {
+		return Platform.getStateLocation(Activator.getContext().getBundle());
+	}
+
 }
@@ -0,0 +1,247 @@
+package org.eclipse.dawnsci.anaconda;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.dawnsci.anaconda.installer.CloneInstaller;
+import org.eclipse.dawnsci.anaconda.installer.IInstallCompleteHandler;
+import org.eclipse.dawnsci.anaconda.installer.IInstaller;
+import org.eclipse.dawnsci.anaconda.installer.InstallOutputChunkHandler;
+import org.eclipse.dawnsci.anaconda.installer.Installer;
+import org.eclipse.dawnsci.anaconda.installer.PackageProfile;
+import org.eclipse.dawnsci.anaconda.installer.ProcessLauncher;
+import org.eclipse.dawnsci.anaconda.installer.SharedBaseInstaller;
+import org.eclipse.dawnsci.anaconda.installer.TranscriptLauncher;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+/**
+ * Runs the Anaconda install without a display, for scripted provisioning of one or more install locations.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * eclipse -nosplash -application org.eclipse.dawnsci.anaconda.install [options] target...
+ *   -targets FILE     read further targets from FILE, one per line
+ *   -parallel N       install at most N targets at the same time (default 1)
+ *   -pkgs DIR         share the conda package cache DIR between all targets
+ *   -mirror URL       prefetch packages from the channel mirror URL
+ *   -archive FILE     unpack the environment archive FILE instead of running the installer
+ *   -reference DIR    clone the installation DIR instead of running the installer
+ *   -base DIR         create each target as an environment of the shared installation DIR, installing it first
+ *                     if it is not there
+ *   -record DIR       record the installer processes to transcripts in DIR
+ *   -replay DIR       replay the installer processes from transcripts in DIR instead of running them
+ *   -speed X          replay X times faster than recorded, 0 for as fast as possible (default 1)
+ *   -compile BOOL     compile the installed packages to bytecode (default true)
+ *   -rollback BOOL    remove the partial installation of a canceled install (default false)
+ *   -profile ID       install the packages of the package profile ID (default the default profile of the manifest)
+ * </pre>
+ *
+ * Progress is written to stdout as one JSON object per line, see {@link JsonProgressMonitor}. The full output of
+ * each install, whether it runs the installer, unpacks an archive or clones a reference, goes to the log in its
+ * target directory. The exit code is 0 if every target was installed, 1 if any
+ * failed and 2 if the arguments were wrong.
+ */
+public class HeadlessInstallApplication implements IApplication {
+
+	private static final Integer EXIT_FAILED = Integer.valueOf(1);
+	private static final Integer EXIT_USAGE = Integer.valueOf(2);
+
+	private final List<JsonProgressMonitor> monitors = new ArrayList<JsonProgressMonitor>();
+	private volatile boolean stopped;
+
+	@Override
+	public Object start(IApplicationContext context) throws Exception {
+		String[] args = (String[]) context.getArguments().get(IApplicationContext.APPLICATION_ARGS);
+		if (args == null) {
+			args = new String[0];
+		}
+		context.applicationRunning();
+
+		PrintStream out = System.out;
+		List<String> targets = new ArrayList<String>();
+		int parallel = 1;
+		String pkgs = null;
+		String mirror = null;
+		String archive = null;
+		String reference = null;
+		String base = null;
+		String record = null;
+		String replay = null;
+		double speed = 1;
+		boolean precompile = true;
+		boolean rollback = false;
+		String profileId = null;
+		PackageProfile profile;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.startsWith("-") && !"-".equals(arg) && i + 1 >= args.length) {
+					throw new IllegalArgumentException("Missing value for " + arg);
+				}
+				if ("-targets".equals(arg)) {
+					readTargets(args[++i], targets);
+				} else if ("-parallel".equals(arg)) {
+					parallel = Integer.parseInt(args[++i]);
+				} else if ("-pkgs".equals(arg)) {
+					pkgs = args[++i];
+				} else if ("-mirror".equals(arg)) {
+					mirror = args[++i];
+				} else if ("-archive".equals(arg)) {
+					archive = args[++i];
+				} else if ("-reference".equals(arg)) {
+					reference = args[++i];
+				} else if ("-base".equals(arg)) {
+					base = args[++i];
+				} else if ("-record".equals(arg)) {
+					record = args[++i];
+				} else if ("-replay".equals(arg)) {
+					replay = args[++i];
+				} else if ("-speed".equals(arg)) {
+					speed = Double.parseDouble(args[++i]);
+				} else if ("-compile".equals(arg)) {
+					precompile = Boolean.parseBoolean(args[++i]);
+				} else if ("-rollback".equals(arg)) {
+					rollback = Boolean.parseBoolean(args[++i]);
+				} else if ("-profile".equals(arg)) {
+					profileId = args[++i];
+				} else if (arg.startsWith("-")) {
+					throw new IllegalArgumentException("Unknown option " + arg);
+				} else {
+					targets.add(arg);
+				}
+			}
+			if (targets.isEmpty() || parallel < 1) {
+				throw new IllegalArgumentException("No targets given");
+			}
+			if (record != null && (replay != null || targets.size() > 1)) {
+				throw new IllegalArgumentException("-record needs a single target and no -replay");
+			}
+			profile = profileId != null ? PackageProfile.getProfile(profileId) : PackageProfile.getDefault();
+		} catch (RuntimeException e) {
+			System.err.println("Invalid arguments: " + e.getMessage());
+			return EXIT_USAGE;
+		} catch (IOException e) {
+			System.err.println("Failed to read targets: " + e.getMessage());
+			return EXIT_USAGE;
+		} catch (CoreException e) {
+			System.err.println("Invalid package profile: " + e.getStatus().getMessage());
+			return EXIT_USAGE;
+		}
+
+		ProcessLauncher launcher = null;
+		if (record != null || replay != null) {
+			launcher = new TranscriptLauncher(new File(record != null ? record : replay), record != null, speed);
+		}
+
+		final AtomicInteger failures = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallel, targets.size()));
+		for (final String target : targets) {
+			final JsonProgressMonitor monitor = new JsonProgressMonitor(out, target);
+			final IInstaller installer = createInstaller(archive, reference, base, pkgs, mirror,
+					launcher, precompile, rollback, profile);
+			synchronized (monitors) {
+				monitors.add(monitor);
+			}
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (stopped) {
+						monitor.event("canceled", null, null);
+						failures.incrementAndGet();
+						return;
+					}
+					monitor.event("start", null, null);
+					try {
+						installer.runInstall(target, monitor, new InstallOutputChunkHandler() {
+							@Override
+							public void starting() {
+							}
+
+							@Override
+							public void output(String string) {
+								// the full output is in the install log
+							}
+
+							@Override
+							public void output(char[] chars, int offset, int length) {
+							}
+						}, new IInstallCompleteHandler() {
+							@Override
+							public void setInstallPath(String installPath) {
+								monitor.event("done", "python", installPath);
+							}
+						});
+					} catch (CoreException e) {
+						failures.incrementAndGet();
+						monitor.event("error", "message", e.getStatus().getMessage());
+					} catch (RuntimeException e) {
+						failures.incrementAndGet();
+						monitor.event("error", "message", e.toString());
+					}
+				}
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+
+		return failures.get() == 0 ? EXIT_OK : EXIT_FAILED;
+	}
+
+	@Override
+	public void stop() {
+		stopped = true;
+		synchronized (monitors) {
+			for (JsonProgressMonitor monitor : monitors) {
+				monitor.setCanceled(true);
+			}
+		}
+	}
+
+	private static IInstaller createInstaller(String archive, String reference, String base, String pkgs,
+			String mirror, ProcessLauncher launcher, boolean precompile, boolean rollback, PackageProfile profile) {
+		if (reference != null) {
+			return new CloneInstaller(reference);
+		}
+		Installer installer = new Installer(archive == null ? null : new File(archive));
+		installer.setPackageCacheDir(pkgs);
+		installer.setChannelMirror(mirror);
+		installer.setProcessLauncher(launcher);
+		installer.setPrecompile(precompile);
+		installer.setRollbackOnCancel(rollback);
+		installer.setPackageProfile(profile);
+		if (base != null) {
+			return new SharedBaseInstaller(base, installer);
+		}
+		return installer;
+	}
+
+	private static void readTargets(String file, List<String> targets) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+				Charset.forName("UTF-8")));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#")) {
+					targets.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -18,6 +18,9 @@
 
 package org.eclipse.dawnsci.anaconda;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.python.pydev.ui.pythonpathconf.IInterpreterProvider;
 import org.python.pydev.ui.pythonpathconf.IInterpreterProviderFactory;
 
@@ -29,8 +32,15 @@ public class InstallAnacondaFactory implements IInterpreterProviderFactory {
 		if (type != InterpreterType.PYTHON) {
 			return null;
 		}
-		// This syntax is initializing the array
-		return new IInterpreterProvider[] { new InterpreterProvider() };
+		// Offer the installations already on disk as well as installing a new one
+		List<String> installs = InstallDiscovery.getDefault().getInstalls();
+		List<IInterpreterProvider> providers = new ArrayList<IInterpreterProvider>(installs.size() + 1);
+		for (String install : installs) {
+			providers.add(new InterpreterProvider(InstallDiscovery.getPython(install).getPath(),
+					InstallRegistry.getDefault().getInstall(install)));
+		}
+		providers.add(new InterpreterProvider());
+		return providers.toArray(new IInterpreterProvider[providers.size()]);
 	}
 
 }
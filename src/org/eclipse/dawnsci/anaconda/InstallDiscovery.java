@@ -0,0 +1,187 @@
+package org.eclipse.dawnsci.anaconda;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.dawnsci.anaconda.installer.Installer;
+import org.python.pydev.shared_core.utils.PlatformUtils;
+
+/**
+ * Finds Anaconda installations that already exist on disk, so they can be offered instead of a new install.
+ * <p>
+ * An installation is a directory with a python executable and a <code>conda-meta</code> directory. The usual roots
+ * (the home directory, <code>/opt</code>, the wizard's default install location and <code>CONDA_PREFIX</code>) and
+ * their immediate subdirectories are checked, one root per thread. What was found under each root is cached together
+ * with the root's modification time, so later lookups only stat the roots and the installs already found, and only
+ * a root that has changed is scanned again. Installations recorded in the {@link InstallRegistry} are always
+ * included.
+ */
+public final class InstallDiscovery {
+
+	private static final class RootScan {
+		final long modified;
+		final List<String> installs;
+
+		RootScan(long modified, List<String> installs) {
+			this.modified = modified;
+			this.installs = installs;
+		}
+	}
+
+	private static InstallDiscovery instance;
+
+	private final Map<String, RootScan> scans = new ConcurrentHashMap<String, RootScan>();
+	private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "Anaconda Install Discovery");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	/**
+	 * @return the shared discovery service
+	 */
+	public static synchronized InstallDiscovery getDefault() {
+		if (instance == null) {
+			instance = new InstallDiscovery();
+		}
+		return instance;
+	}
+
+	private InstallDiscovery() {
+	}
+
+	/**
+	 * Start scanning in the background so that the first call to {@link #getInstalls()} finds the results ready.
+	 */
+	public void prime() {
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				getInstalls();
+			}
+		});
+	}
+
+	/**
+	 * @return the root directories of the Anaconda installations found
+	 */
+	public synchronized List<String> getInstalls() {
+		List<String> roots = getRoots();
+		List<Future<RootScan>> pending = new ArrayList<Future<RootScan>>();
+		for (final String root : roots) {
+			RootScan scan = scans.get(root);
+			long modified = new File(root).lastModified();
+			if (scan == null || scan.modified != modified) {
+				pending.add(executor.submit(new Callable<RootScan>() {
+					@Override
+					public RootScan call() {
+						RootScan scan = scan(root);
+						scans.put(root, scan);
+						return scan;
+					}
+				}));
+			}
+		}
+		for (Future<RootScan> future : pending) {
+			try {
+				future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			} catch (ExecutionException e) {
+				// a root that can not be scanned has no installs to offer
+			}
+		}
+
+		// installs made by this plug-in first, wherever they are
+		Set<String> installs = new LinkedHashSet<String>();
+		for (InstallRegistry.InstallRecord record : InstallRegistry.getDefault().getInstalls()) {
+			installs.add(record.getPath());
+		}
+		for (String root : roots) {
+			RootScan scan = scans.get(root);
+			if (scan != null) {
+				installs.addAll(scan.installs);
+			}
+		}
+		// an install inside an unchanged root may still have been deleted
+		List<String> result = new ArrayList<String>(installs.size());
+		for (String install : installs) {
+			if (getPython(install).isFile()) {
+				result.add(install);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param installPath
+	 *            root of an installation
+	 * @return the python executable of the installation
+	 */
+	public static File getPython(String installPath) {
+		if (PlatformUtils.isWindowsPlatform()) {
+			return new File(installPath, "python.exe");
+		}
+		return new File(installPath, "bin" + File.separator + "python");
+	}
+
+	private static List<String> getRoots() {
+		Set<String> roots = new LinkedHashSet<String>();
+		String home = System.getenv("HOME");
+		if (home != null) {
+			roots.add(home);
+		}
+		if (!PlatformUtils.isWindowsPlatform()) {
+			roots.add("/opt");
+		}
+		File defaultLocation = new File(Installer.getDefaultInstallLocation());
+		if (defaultLocation.isAbsolute()) {
+			roots.add(defaultLocation.getPath());
+			if (defaultLocation.getParent() != null) {
+				roots.add(defaultLocation.getParent());
+			}
+		}
+		String condaPrefix = System.getenv("CONDA_PREFIX");
+		if (condaPrefix != null && condaPrefix.length() > 0) {
+			roots.add(new File(condaPrefix).getAbsolutePath());
+		}
+		return new ArrayList<String>(roots);
+	}
+
+	private static RootScan scan(String root) {
+		File dir = new File(root);
+		long modified = dir.lastModified();
+		List<String> installs = new ArrayList<String>();
+		if (isInstall(dir)) {
+			installs.add(dir.getAbsolutePath());
+		}
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				if (!child.getName().startsWith(".") && isInstall(child)) {
+					installs.add(child.getAbsolutePath());
+				}
+			}
+		}
+		return new RootScan(modified, installs);
+	}
+
+	private static boolean isInstall(File dir) {
+		return new File(dir, "conda-meta").isDirectory() && getPython(dir.getPath()).isFile();
+	}
+}
@@ -0,0 +1,256 @@
+package org.eclipse.dawnsci.anaconda;
+
+import java.io.File;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.preferences.IEclipsePreferences;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.osgi.service.prefs.BackingStoreException;
+import org.osgi.service.prefs.Preferences;
+
+/**
+ * Remembers the installations completed by this plug-in across calls to the interpreter provider factory and
+ * across restarts.
+ * <p>
+ * Each installation is a child node of the <code>installs</code> node in the plug-in's instance preferences, holding
+ * the install location and a little metadata read from <code>conda-meta</code> when the install completed. The
+ * preferences are only read on first use, which is normally the background discovery scan started with the bundle.
+ */
+public final class InstallRegistry {
+
+	private static final String INSTALLS_NODE = "installs";
+	private static final String PATH_KEY = "path";
+	private static final String PYTHON_VERSION_KEY = "pythonVersion";
+	private static final String PACKAGE_COUNT_KEY = "packageCount";
+	private static final String INSTALLED_KEY = "installed";
+
+	/**
+	 * What is known about an installation.
+	 */
+	public static final class InstallRecord {
+		private final String path;
+		private final String pythonVersion;
+		private final int packageCount;
+		private final long installed;
+
+		InstallRecord(String path, String pythonVersion, int packageCount, long installed) {
+			this.path = path;
+			this.pythonVersion = pythonVersion;
+			this.packageCount = packageCount;
+			this.installed = installed;
+		}
+
+		/**
+		 * @return root of the installation
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return version of python in the installation, or <code>null</code> if not known
+		 */
+		public String getPythonVersion() {
+			return pythonVersion;
+		}
+
+		/**
+		 * @return number of conda packages in the installation when it was installed
+		 */
+		public int getPackageCount() {
+			return packageCount;
+		}
+
+		/**
+		 * @return time the installation completed, in milliseconds since the epoch
+		 */
+		public long getInstalled() {
+			return installed;
+		}
+	}
+
+	private static InstallRegistry instance;
+
+	private Map<String, InstallRecord> records;
+
+	/**
+	 * @return the shared registry
+	 */
+	public static synchronized InstallRegistry getDefault() {
+		if (instance == null) {
+			instance = new InstallRegistry();
+		}
+		return instance;
+	}
+
+	private InstallRegistry() {
+	}
+
+	/**
+	 * @return the installations recorded that still have a python executable, oldest first
+	 */
+	public synchronized List<InstallRecord> getInstalls() {
+		load();
+		List<InstallRecord> result = new ArrayList<InstallRecord>(records.size());
+		List<String> missing = new ArrayList<String>();
+		for (InstallRecord record : records.values()) {
+			if (InstallDiscovery.getPython(record.getPath()).isFile()) {
+				result.add(record);
+			} else {
+				missing.add(record.getPath());
+			}
+		}
+		for (String path : missing) {
+			remove(path);
+		}
+		return result;
+	}
+
+	/**
+	 * @param installPath
+	 *            root of an installation
+	 * @return the record of the installation, or <code>null</code> if it was not installed by this plug-in
+	 */
+	public synchronized InstallRecord getInstall(String installPath) {
+		load();
+		return records.get(new File(installPath).getAbsolutePath());
+	}
+
+	/**
+	 * Record a completed installation, replacing any earlier record for the same location.
+	 *
+	 * @param installPath
+	 *            root of the installation
+	 * @return the record stored
+	 */
+	public synchronized InstallRecord add(String installPath) {
+		load();
+		String path = new File(installPath).getAbsolutePath();
+		InstallRecord record = readMetadata(path);
+		records.remove(path);
+		records.put(path, record);
+
+		Preferences node = getInstallsNode().node(getNodeName(path));
+		node.put(PATH_KEY, record.getPath());
+		if (record.getPythonVersion() != null) {
+			node.put(PYTHON_VERSION_KEY, record.getPythonVersion());
+		}
+		node.putInt(PACKAGE_COUNT_KEY, record.getPackageCount());
+		node.putLong(INSTALLED_KEY, record.getInstalled());
+		flush();
+		return record;
+	}
+
+	/**
+	 * Forget an installation.
+	 *
+	 * @param installPath
+	 *            root of the installation
+	 */
+	public synchronized void remove(String installPath) {
+		load();
+		String path = new File(installPath).getAbsolutePath();
+		if (records.remove(path) == null) {
+			return;
+		}
+		try {
+			Preferences installs = getInstallsNode();
+			String name = getNodeName(path);
+			if (installs.nodeExists(name)) {
+				installs.node(name).removeNode();
+			}
+		} catch (BackingStoreException e) {
+			// The record is dropped again next time the installation is found missing
+		}
+		flush();
+	}
+
+	private void load() {
+		if (records != null) {
+			return;
+		}
+		records = new LinkedHashMap<String, InstallRecord>();
+		List<InstallRecord> loaded = new ArrayList<InstallRecord>();
+		try {
+			Preferences installs = getInstallsNode();
+			for (String name : installs.childrenNames()) {
+				Preferences node = installs.node(name);
+				String path = node.get(PATH_KEY, null);
+				if (path != null) {
+					loaded.add(new InstallRecord(path, node.get(PYTHON_VERSION_KEY, null), node.getInt(
+							PACKAGE_COUNT_KEY, 0), node.getLong(INSTALLED_KEY, 0)));
+				}
+			}
+		} catch (BackingStoreException e) {
+			// Nothing recorded can be read, installs will still be found by the discovery scan
+		}
+		// child nodes are not kept in order, so order by when installed
+		while (!loaded.isEmpty()) {
+			InstallRecord oldest = loaded.get(0);
+			for (InstallRecord record : loaded) {
+				if (record.getInstalled() < oldest.getInstalled()) {
+					oldest = record;
+				}
+			}
+			loaded.remove(oldest);
+			records.put(oldest.getPath(), oldest);
+		}
+	}
+
+	/**
+	 * Read the python version and package count from the package records in <code>conda-meta</code>, which are
+	 * named <code>&lt;name&gt;-&lt;version&gt;-&lt;build&gt;.json</code>.
+	 */
+	private static InstallRecord readMetadata(String path) {
+		String pythonVersion = null;
+		int packageCount = 0;
+		File[] metas = new File(path, "conda-meta").listFiles();
+		if (metas != null) {
+			for (File meta : metas) {
+				String name = meta.getName();
+				if (!name.endsWith(".json")) {
+					continue;
+				}
+				packageCount++;
+				if (name.startsWith("python-") && Character.isDigit(name.charAt("python-".length()))) {
+					String version = name.substring("python-".length(), name.length() - ".json".length());
+					int build = version.indexOf('-');
+					pythonVersion = build < 0 ? version : version.substring(0, build);
+				}
+			}
+		}
+		return new InstallRecord(path, pythonVersion, packageCount, System.currentTimeMillis());
+	}
+
+	private static IEclipsePreferences getPreferences() {
+		return InstanceScope.INSTANCE.getNode(Activator.PLUGIN_ID);
+	}
+
+	private static Preferences getInstallsNode() {
+		return getPreferences().node(INSTALLS_NODE);
+	}
+
+	/**
+	 * @return a node name for the path, which can not contain '/'
+	 */
+	private static String getNodeName(String path) {
+		try {
+			return URLEncoder.encode(path, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void flush() {
+		try {
+			getPreferences().flush();
+		} catch (BackingStoreException e) {
+			// Kept for this session, lost on restart
+		}
+	}
+}
@@ -1,18 +1,51 @@
 package org.eclipse.dawnsci.anaconda;
 
+import java.io.File;
+
 import org.eclipse.dawnsci.anaconda.installer.IInstallCompleteHandler;
 import org.eclipse.dawnsci.anaconda.wizards.InstallWizard;
 import org.eclipse.jface.wizard.IWizard;
 import org.eclipse.jface.wizard.WizardDialog;
 import org.eclipse.swt.widgets.Display;
+import org.python.pydev.shared_core.utils.PlatformUtils;
 import org.python.pydev.ui.pythonpathconf.IInterpreterProvider;
 
 /**
- * A provider that can install anaconda
+ * A provider that can install anaconda, or that offers an existing installation
  */
 public class InterpreterProvider implements IInterpreterProvider, IInstallCompleteHandler {
 
 	private String installPath = null;
+	private InstallRegistry.InstallRecord record;
+
+	/**
+	 * Create a provider that installs Anaconda when selected.
+	 */
+	public InterpreterProvider() {
+	}
+
+	/**
+	 * Create a provider for an existing installation.
+	 * 
+	 * @param installPath
+	 *            python executable of the installation
+	 */
+	public InterpreterProvider(String installPath) {
+		this.installPath = installPath;
+	}
+
+	/**
+	 * Create a provider for an existing installation made by this plug-in.
+	 * 
+	 * @param installPath
+	 *            python executable of the installation
+	 * @param record
+	 *            what was recorded about the installation when it completed, or <code>null</code> if not known
+	 */
+	public InterpreterProvider(String installPath, InstallRegistry.InstallRecord record) {
+		this.installPath = installPath;
+		this.record = record;
+	}
 	
 	@Override
 	public String getExecutableOrJar() {
@@ -24,7 +57,16 @@ public class InterpreterProvider implements IInterpreterProvider, IInstallComple
 
 	@Override
 	public String getName() {
-		return "Anaconda";
+		if (record == null) {
+			return "Anaconda";
+		}
+		// e.g. "Anaconda (Python 2.7.11, 214 packages)"
+		StringBuilder name = new StringBuilder("Anaconda (");
+		if (record.getPythonVersion() != null) {
+			name.append("Python ").append(record.getPythonVersion()).append(", ");
+		}
+		name.append(record.getPackageCount()).append(" packages)");
+		return name.toString();
 	}
 
 	@Override
@@ -43,5 +85,13 @@ public class InterpreterProvider implements IInterpreterProvider, IInstallComple
 	@Override
 	public void setInstallPath(String installPath) {
 		this.installPath = installPath;
+		// installPath is <root>/bin/python, or <root>\python.exe on Windows
+		File root = new File(installPath).getParentFile();
+		if (!PlatformUtils.isWindowsPlatform() && root != null) {
+			root = root.getParentFile();
+		}
+		if (root != null) {
+			record = InstallRegistry.getDefault().add(root.getPath());
+		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,173 @@
+package org.eclipse.dawnsci.anaconda;
+
+import java.io.PrintStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * A progress monitor that reports one install target's progress as JSON lines, for use by scripts driving
+ * {@link HeadlessInstallApplication}.
+ * <p>
+ * Each line is an object with at least <code>target</code> and <code>event</code> members. Progress is only reported
+ * when the whole percentage changes or the task changes, so the output stays small however fine grained the
+ * installer's progress is.
+ */
+class JsonProgressMonitor implements IProgressMonitor {
+
+	private final PrintStream out;
+	private final String target;
+	private volatile boolean canceled;
+
+	private double totalWork;
+	private double worked;
+	private int lastPercent = -1;
+	private String taskName = "";
+	private String subTaskName = "";
+
+	/**
+	 * @param out
+	 *            stream to write to, shared by all targets, so lines are written while holding its lock
+	 * @param target
+	 *            install location being reported on
+	 */
+	JsonProgressMonitor(PrintStream out, String target) {
+		this.out = out;
+		this.target = target;
+	}
+
+	@Override
+	public synchronized void beginTask(String name, int total) {
+		taskName = name == null ? "" : name;
+		totalWork = total;
+		worked = 0;
+		lastPercent = -1;
+		report();
+	}
+
+	@Override
+	public synchronized void done() {
+		worked = totalWork;
+		report();
+	}
+
+	@Override
+	public synchronized void internalWorked(double work) {
+		worked += work;
+		report();
+	}
+
+	@Override
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	@Override
+	public void setCanceled(boolean value) {
+		canceled = value;
+	}
+
+	@Override
+	public synchronized void setTaskName(String name) {
+		taskName = name == null ? "" : name;
+		lastPercent = -1;
+		report();
+	}
+
+	@Override
+	public synchronized void subTask(String name) {
+		subTaskName = name == null ? "" : name;
+	}
+
+	@Override
+	public void worked(int work) {
+		internalWorked(work);
+	}
+
+	/**
+	 * Report an event other than progress.
+	 *
+	 * @param event
+	 *            name of the event
+	 * @param key
+	 *            name of an extra member, or <code>null</code>
+	 * @param value
+	 *            value of the extra member
+	 */
+	void event(String event, String key, String value) {
+		StringBuilder sb = start(event);
+		if (key != null) {
+			sb.append(",\"").append(key).append("\":");
+			appendString(sb, value);
+		}
+		print(sb);
+	}
+
+	private void report() {
+		int percent = totalWork > 0 ? (int) Math.min(100, worked * 100 / totalWork) : -1;
+		if (percent == lastPercent) {
+			return;
+		}
+		lastPercent = percent;
+		StringBuilder sb = start("progress");
+		sb.append(",\"percent\":").append(percent);
+		sb.append(",\"task\":");
+		appendString(sb, taskName);
+		sb.append(",\"subTask\":");
+		appendString(sb, subTaskName);
+		print(sb);
+	}
+
+	private StringBuilder start(String event) {
+		StringBuilder sb = new StringBuilder(128);
+		sb.append("{\"time\":").append(System.currentTimeMillis());
+		sb.append(",\"target\":");
+		appendString(sb, target);
+		sb.append(",\"event\":");
+		appendString(sb, event);
+		return sb;
+	}
+
+	private void print(StringBuilder sb) {
+		sb.append('}');
+		synchronized (out) {
+			out.println(sb);
+			out.flush();
+		}
+	}
+
+	static void appendString(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("null");
+			return;
+		}
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				sb.append("\\\"");
+				break;
+			case '\\':
+				sb.append("\\\\");
+				break;
+			case '\n':
+				sb.append("\\n");
+				break;
+			case '\r':
+				sb.append("\\r");
+				break;
+			case '\t':
+				sb.append("\\t");
+				break;
+			default:
+				if (c < 0x20) {
+					sb.append(String.format("\\u%04x", (int) c));
+				} else {
+					sb.append(c);
+				}
+				break;
+			}
+		}
+		sb.append('"');
+	}
+}
@@ -0,0 +1,265 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.zip.GZIPInputStream;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.dawnsci.anaconda.Activator;
+import org.python.pydev.runners.SimpleRunner;
+import org.python.pydev.shared_core.utils.PlatformUtils;
+
+/**
+ * Installs a prebuilt, relocatable environment archive (as made by conda-pack) instead of running the Anaconda
+ * installer and conda.
+ * <p>
+ * The archive is unpacked by a pipeline in which reading the file, decompressing it and writing the files out each
+ * run on their own threads (see {@link PrefetchInputStream} and {@link TarExtractor}). <code>.tar.gz</code> is
+ * inflated in the VM; the JDK has no zstd support, so <code>.tar.zst</code> is decompressed by an external
+ * <code>zstd</code> process, which is then the decompression stage; what it reports goes to the output handler, and
+ * the archive is only taken as unpacked if it exits with success. Once unpacked, the environment's own
+ * <code>bin/conda-unpack</code> is run to replace the prefix recorded in the archive with the install location.
+ */
+public final class ArchiveInstaller implements IInstaller {
+
+	private static final String CONDA_UNPACK = "conda-unpack";
+
+	private final File archive;
+
+	/**
+	 * @param archive
+	 *            environment archive to install
+	 */
+	public ArchiveInstaller(File archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * @return <code>true</code> if the file name is that of an archive this installer can unpack
+	 */
+	public static boolean isArchive(String fileName) {
+		String name = fileName.toLowerCase();
+		return name.endsWith(".tar.gz") || name.endsWith(".tgz") || name.endsWith(".tar.zst")
+				|| name.endsWith(".tar");
+	}
+
+	@Override
+	public void runInstall(String installPath, IProgressMonitor monitor, InstallOutputHandler feedbackHandler,
+			IInstallCompleteHandler completeHandler) throws CoreException {
+		TranscriptOutputHandler handler = new TranscriptOutputHandler(feedbackHandler, new File(installPath));
+		try {
+			unpack(installPath, monitor, handler, completeHandler);
+		} catch (CoreException e) {
+			handler.failed(e);
+			throw e;
+		} finally {
+			handler.close();
+		}
+	}
+
+	private void unpack(String installPath, final IProgressMonitor monitor,
+			final InstallOutputHandler feedbackHandler, IInstallCompleteHandler completeHandler) throws CoreException {
+		String name = archive.getName().toLowerCase();
+		boolean zstd = name.endsWith(".zst");
+		monitor.beginTask("Unpacking " + archive.getName(), zstd ? IProgressMonitor.UNKNOWN
+				: (int) (archive.length() / 1024));
+		feedbackHandler.starting();
+		feedbackHandler.output("Unpacking " + archive + " to " + installPath + "\n");
+
+		File destination = new File(installPath);
+		int files;
+		Process decompressor = null;
+		Thread errorReader = null;
+		InputStream in = null;
+		try {
+			destination.mkdirs();
+			if (zstd) {
+				ProcessBuilder builder = new ProcessBuilder("zstd", "-d", "-c", "-q", archive.getAbsolutePath());
+				decompressor = builder.start();
+				decompressor.getOutputStream().close();
+				errorReader = readErrors(decompressor, feedbackHandler);
+				in = new PrefetchInputStream(decompressor.getInputStream(), "Anaconda Archive Reader");
+			} else {
+				in = new PrefetchInputStream(new ProgressInputStream(new FileInputStream(archive), monitor),
+						"Anaconda Archive Reader");
+				if (!name.endsWith(".tar")) {
+					in = new PrefetchInputStream(new GZIPInputStream(in, 64 * 1024), "Anaconda Archive Decompressor");
+				}
+			}
+
+			TarExtractor extractor = new TarExtractor(destination, monitor);
+			boolean complete = extractor.extract(in);
+			files = extractor.getFileCount();
+			if (!complete) {
+				Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+						"Installation canceled. You may need to manually clean up partial install. Please review output.");
+				throw new CoreException(status);
+			}
+			if (decompressor != null) {
+				int exitValue = waitFor(decompressor, errorReader, in);
+				if (exitValue != 0) {
+					Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "zstd failed with exit code "
+							+ exitValue + " decompressing '" + archive + "'. Please review output.");
+					throw new CoreException(status);
+				}
+			}
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to unpack '" + archive + "': "
+					+ e.getMessage(), e);
+			throw new CoreException(status);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Ignore close error
+				}
+			}
+			if (decompressor != null) {
+				decompressor.destroy();
+			}
+		}
+		feedbackHandler.output("Unpacked " + files + " files\n");
+
+		File exe = new File(destination, PlatformUtils.isWindowsPlatform() ? "python.exe" : "bin/python");
+		if (!exe.exists()) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					"Installation failed. Expected to find python here: '" + exe + "' but it was missing.");
+			throw new CoreException(status);
+		}
+
+		fixPrefix(destination, exe, monitor, feedbackHandler);
+
+		completeHandler.setInstallPath(exe.getPath());
+		monitor.done();
+	}
+
+	/**
+	 * Pass what the decompressor prints to its stderr on to the output handler.
+	 */
+	private static Thread readErrors(Process decompressor, final InstallOutputHandler feedbackHandler) {
+		final InputStream stderr = decompressor.getErrorStream();
+		Thread thread = new Thread("Anaconda Archive Decompressor Errors") {
+			@Override
+			public void run() {
+				try {
+					Reader reader = new InputStreamReader(stderr, Charset.defaultCharset());
+					try {
+						char[] buffer = new char[1024];
+						int n;
+						while ((n = reader.read(buffer)) != -1) {
+							feedbackHandler.output(new String(buffer, 0, n));
+						}
+					} finally {
+						reader.close();
+					}
+				} catch (IOException e) {
+					// the process is gone
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Wait for the decompressor to exit. The tar stream ends before the padding after it, which is read and dropped
+	 * first so the decompressor is not left blocked writing it.
+	 *
+	 * @return exit code of the decompressor
+	 */
+	private static int waitFor(Process decompressor, Thread errorReader, InputStream in) throws IOException {
+		byte[] buffer = new byte[8192];
+		while (in.read(buffer) != -1) {
+			// padding
+		}
+		try {
+			int exitValue = decompressor.waitFor();
+			errorReader.join();
+			return exitValue;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for zstd", e);
+		}
+	}
+
+	/**
+	 * Run the conda-unpack script that conda-pack puts in the environment to rewrite the prefix in its files.
+	 */
+	private void fixPrefix(File destination, File exe, IProgressMonitor monitor,
+			final InstallOutputHandler feedbackHandler) throws CoreException {
+		File condaUnpack = new File(destination, PlatformUtils.isWindowsPlatform() ? "Scripts\\" + CONDA_UNPACK
+				+ "-script.py" : "bin/" + CONDA_UNPACK);
+		if (!condaUnpack.isFile()) {
+			feedbackHandler.output("No " + CONDA_UNPACK + " in the archive, the prefix of the environment was not "
+					+ "changed\n");
+			return;
+		}
+
+		monitor.subTask("Fixing up prefix");
+		String[] cmdarray = new String[] { exe.getPath(), condaUnpack.getPath() };
+		Process process;
+		try {
+			process = SimpleRunner.createProcess(cmdarray, null, destination);
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to launch " + CONDA_UNPACK, e);
+			throw new CoreException(status);
+		}
+		ProcessSupervisor.StreamListener output = new ProcessSupervisor.StreamListener() {
+			@Override
+			public void output(char[] chars, int offset, int length) {
+				OutputChunks.output(feedbackHandler, chars, offset, length);
+			}
+		};
+		int exitValue = ProcessSupervisor.getDefault().start(process, monitor, output, output, null).waitFor();
+		if (exitValue != 0) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, CONDA_UNPACK
+					+ " failed with exit code " + exitValue + ". Please review output.");
+			throw new CoreException(status);
+		}
+	}
+
+	/**
+	 * Reports each KB read from the archive file as a unit of work.
+	 */
+	private static final class ProgressInputStream extends FilterInputStream {
+		private final IProgressMonitor monitor;
+		private long read;
+
+		ProgressInputStream(InputStream in, IProgressMonitor monitor) {
+			super(in);
+			this.monitor = monitor;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0) {
+				long before = read / 1024;
+				read += n;
+				int kb = (int) (read / 1024 - before);
+				if (kb > 0) {
+					monitor.worked(kb);
+				}
+			}
+			return n;
+		}
+	}
+
+	@Override
+	public void runManualInstall() throws CoreException {
+		Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+				"Unpacking an environment archive can not be run manually.");
+		throw new CoreException(status);
+	}
+}
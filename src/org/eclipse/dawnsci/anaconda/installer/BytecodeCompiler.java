@@ -0,0 +1,232 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Compiles the site-packages of a new installation to bytecode, so that the first code analysis by PyDev and the
+ * first interactive session do not have to.
+ * <p>
+ * Each package directory is compiled by its own <code>python -m compileall</code>, as many at a time as there are
+ * processors; the modules at the top of site-packages are compiled together. A package that fails to compile, e.g.
+ * because it holds sources for another version of Python, is left for Python to compile when it is imported.
+ * <p>
+ * When the monitor is canceled the running compiles are killed with {@link ProcessTree}, and {@link #compile} only
+ * returns once they are gone, so nothing writes to the installation any more.
+ */
+final class BytecodeCompiler {
+
+	/**
+	 * How often the monitor is checked while packages are compiled
+	 */
+	private static final long WAIT_INTERVAL_MS = 100;
+
+	/**
+	 * How long a canceled compile waits for its killed processes to be reaped
+	 */
+	private static final long KILL_TIMEOUT_SECONDS = 10;
+
+	private final String python;
+	private final InstallMetrics metrics;
+
+	/**
+	 * Compiles running now, guarded by itself
+	 */
+	private final Set<Process> running = new HashSet<Process>();
+	private boolean canceled;
+
+	/**
+	 * @param python
+	 *            python executable of the installation
+	 */
+	BytecodeCompiler(String python, InstallMetrics metrics) {
+		this.python = python;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Compile the site-packages of an installation, reporting one unit of work per package.
+	 *
+	 * @param installDir
+	 *            root of the installation
+	 * @param monitor
+	 *            compiling stops if this monitor is canceled
+	 * @return number of packages that failed to compile, or -1 if the monitor was canceled
+	 */
+	int compile(File installDir, IProgressMonitor monitor) {
+		List<String[]> commands = new ArrayList<String[]>();
+		for (File sitePackages : getSitePackages(installDir)) {
+			// top level modules only, the packages are compiled on their own
+			commands.add(new String[] { python, "-m", "compileall", "-q", "-l", sitePackages.getPath() });
+			File[] children = sitePackages.listFiles();
+			if (children != null) {
+				Arrays.sort(children);
+				for (File child : children) {
+					if (child.isDirectory() && new File(child, "__init__.py").isFile()) {
+						commands.add(new String[] { python, "-m", "compileall", "-q", child.getPath() });
+					}
+				}
+			}
+		}
+		monitor.beginTask("Compiling packages", commands.size());
+		if (commands.isEmpty()) {
+			monitor.done();
+			return 0;
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(Runtime.getRuntime().availableProcessors(), commands.size()), new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Anaconda Bytecode Compile " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		final AtomicInteger failures = new AtomicInteger();
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		for (final String[] command : commands) {
+			tasks.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						if (execute(command) != 0) {
+							failures.incrementAndGet();
+						}
+					} catch (IOException e) {
+						failures.incrementAndGet();
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+
+		try {
+			for (int i = 0; i < tasks.size(); i++) {
+				Future<?> task = tasks.get(i);
+				while (!task.isDone()) {
+					if (monitor.isCanceled()) {
+						cancel(executor);
+						return -1;
+					}
+					monitor.subTask("Compiling " + new File(commands.get(i)[commands.get(i).length - 1]).getName());
+					try {
+						task.get(WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						cancel(executor);
+						Thread.currentThread().interrupt();
+						return -1;
+					} catch (ExecutionException e) {
+						// failures are counted by the task itself
+					} catch (CancellationException e) {
+						// canceled before it started
+					} catch (TimeoutException e) {
+						// check the monitor again
+					}
+				}
+				monitor.worked(1);
+				metrics.count("compile.packages", 1);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		monitor.done();
+		return failures.get();
+	}
+
+	/**
+	 * Kill the running compiles, keep any more from starting, and wait for the tasks running them to end.
+	 */
+	private void cancel(ExecutorService executor) {
+		synchronized (running) {
+			canceled = true;
+			for (Process process : running) {
+				ProcessTree.kill(process);
+			}
+		}
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(KILL_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @return the site-packages directories of the installation, <code>lib/python*&#47;site-packages</code> or
+	 *         <code>Lib/site-packages</code> on Windows
+	 */
+	private static List<File> getSitePackages(File installDir) {
+		List<File> sitePackages = new ArrayList<File>();
+		File windows = new File(installDir, "Lib" + File.separator + "site-packages");
+		if (windows.isDirectory()) {
+			sitePackages.add(windows);
+		}
+		File[] libs = new File(installDir, "lib").listFiles();
+		if (libs != null) {
+			for (File lib : libs) {
+				File candidate = new File(lib, "site-packages");
+				if (lib.getName().startsWith("python") && candidate.isDirectory()) {
+					sitePackages.add(candidate);
+				}
+			}
+		}
+		return sitePackages;
+	}
+
+	/**
+	 * Run a compile and wait for it. The process is killed on cancel, which ends the read of its output.
+	 *
+	 * @return exit value of the process
+	 */
+	private int execute(String[] command) throws IOException {
+		Process process;
+		synchronized (running) {
+			if (canceled) {
+				throw new IOException("canceled");
+			}
+			process = new ProcessBuilder(command).redirectErrorStream(true).start();
+			running.add(process);
+		}
+		try {
+			process.getOutputStream().close();
+			InputStream output = process.getInputStream();
+			try {
+				byte[] buffer = new byte[4096];
+				while (output.read(buffer) != -1) {
+					// drain, compileall -q only prints on errors
+				}
+			} finally {
+				output.close();
+			}
+			return process.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("canceled");
+		} finally {
+			synchronized (running) {
+				running.remove(process);
+			}
+			process.destroy();
+		}
+	}
+}
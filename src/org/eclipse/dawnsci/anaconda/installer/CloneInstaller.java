@@ -0,0 +1,488 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.dawnsci.anaconda.Activator;
+import org.python.pydev.shared_core.utils.PlatformUtils;
+
+/**
+ * Installs Anaconda by cloning an existing reference installation rather than running the Miniconda installer and
+ * conda.
+ * <p>
+ * The reference tree is walked in parallel with a fork/join pool. Where the reference and the destination are on the
+ * same file store files are hard linked, otherwise (or as soon as linking fails) they are copied. Files that conda
+ * recorded as containing the installation prefix (the <code>paths_data</code> of <code>conda-meta/*.json</code>, or
+ * <code>pkgs/*&#47;info/has_prefix</code> for conda versions that do not record it there), and the scripts in
+ * <code>bin</code>, are always copied and have the reference prefix replaced by the destination, so rewriting them
+ * never touches the reference installation. Only whole prefixes are replaced, not those that merely start another path
+ * such as <code>/opt/ref2</code> for <code>/opt/ref</code>.
+ * <p>
+ * A reference that is a shared, read-only base (see {@link SharedBaseInstaller}) is cloned as an environment: its
+ * package cache and environments are left out, and where files can not be hard linked they are linked symbolically
+ * rather than copied, except for <code>bin</code>, where Python finds its prefix from the real path of its
+ * executable.
+ */
+public final class CloneInstaller implements IInstaller {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Files larger than this in <code>bin</code> are assumed to be executables, not scripts to rewrite
+	 */
+	private static final long MAX_SCRIPT_SIZE = 1024 * 1024;
+
+	/**
+	 * How many bytes at the start of a file are checked for NULs to decide whether it is binary
+	 */
+	private static final int BINARY_CHECK_SIZE = 8 * 1024;
+
+	/**
+	 * Number of files between updates of the monitor
+	 */
+	private static final int PROGRESS_INTERVAL = 1000;
+
+	/**
+	 * Top level directories of a shared base that are not part of the environments cloned from it
+	 */
+	private static final Set<String> SHARED_EXCLUDED = new HashSet<String>(Arrays.asList("pkgs", "envs"));
+
+	private static final Pattern JSON_OBJECT = Pattern.compile("\\{[^{}]*\\}");
+	private static final Pattern JSON_PATH = Pattern.compile("\"_path\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final Pattern JSON_BINARY = Pattern.compile("\"file_mode\"\\s*:\\s*\"binary\"");
+
+	private final File reference;
+
+	private boolean shared;
+
+	/**
+	 * @param referencePath
+	 *            root of the installation to clone
+	 */
+	public CloneInstaller(String referencePath) {
+		this.reference = new File(referencePath).getAbsoluteFile();
+	}
+
+	/**
+	 * Set whether the reference is a shared base that does not change, so the clone may link to its files
+	 * symbolically where they can not be hard linked.
+	 * 
+	 * @param shared
+	 *            <code>true</code> to clone as an environment of a shared base
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	@Override
+	public void runInstall(String installPath, IProgressMonitor monitor, InstallOutputHandler feedbackHandler,
+			IInstallCompleteHandler completeHandler) throws CoreException {
+		TranscriptOutputHandler handler = new TranscriptOutputHandler(feedbackHandler, new File(installPath));
+		try {
+			cloneTo(installPath, monitor, handler, completeHandler);
+		} catch (CoreException e) {
+			handler.failed(e);
+			throw e;
+		} finally {
+			handler.close();
+		}
+	}
+
+	private void cloneTo(String installPath, IProgressMonitor monitor, InstallOutputHandler feedbackHandler,
+			IInstallCompleteHandler completeHandler) throws CoreException {
+		monitor.beginTask("Cloning " + reference, IProgressMonitor.UNKNOWN);
+		feedbackHandler.starting();
+
+		if (!new File(reference, getPythonRelativePath()).isFile()) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Reference installation '" + reference
+					+ "' does not contain " + getPythonRelativePath() + ".");
+			throw new CoreException(status);
+		}
+
+		File destination = new File(installPath).getAbsoluteFile();
+		feedbackHandler.output("Cloning " + reference + " to " + destination + "\n");
+
+		CloneContext context;
+		try {
+			Files.createDirectories(destination.toPath());
+			boolean sameStore = Files.getFileStore(reference.toPath()).equals(
+					Files.getFileStore(destination.toPath()));
+			context = new CloneContext(reference, destination, readPrefixFiles(reference), sameStore, monitor);
+			context.symlink = shared && !PlatformUtils.isWindowsPlatform();
+			context.excluded = shared ? SHARED_EXCLUDED : Collections.<String> emptySet();
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to prepare clone of '"
+					+ reference + "' to '" + destination + "'.", e);
+			throw new CoreException(status);
+		}
+
+		ForkJoinPool pool = new ForkJoinPool();
+		try {
+			pool.invoke(new CloneDirectoryTask(context, reference, destination));
+		} catch (RuntimeException e) {
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Cloning failed: " + cause.getMessage(),
+					cause);
+			throw new CoreException(status);
+		} finally {
+			pool.shutdown();
+		}
+
+		feedbackHandler.output("Linked " + context.linked + " files, symbolically linked " + context.symlinked
+				+ " files, copied " + context.copied + " files, rewrote " + context.rewritten + " files\n");
+
+		if (monitor.isCanceled()) {
+			Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+					"Installation canceled. You may need to manually clean up partial install. Please review output.");
+			throw new CoreException(status);
+		}
+
+		File exe = new File(destination, getPythonRelativePath());
+		if (!exe.exists()) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					"Installation failed. Expected to find python here: '" + exe + "' but it was missing.");
+			throw new CoreException(status);
+		}
+		completeHandler.setInstallPath(exe.getPath());
+
+		monitor.done();
+	}
+
+	@Override
+	public void runManualInstall() throws CoreException {
+		Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+				"Cloning a reference installation can not be run manually.");
+		throw new CoreException(status);
+	}
+
+	private static String getPythonRelativePath() {
+		if (PlatformUtils.isWindowsPlatform()) {
+			return "python.exe";
+		}
+		return "bin" + File.separator + "python";
+	}
+
+	/**
+	 * Collect the files conda recorded as containing the installation prefix in text form, from the package records in
+	 * <code>conda-meta</code> and the package cache.
+	 *
+	 * @return paths relative to the installation root, using '/' as separator
+	 * @throws IOException
+	 *             if neither records which files contain the prefix, a clone would then point into the reference
+	 */
+	private static Set<String> readPrefixFiles(File root) throws IOException {
+		Set<String> files = new HashSet<String>();
+		boolean found = false;
+		File[] metas = new File(root, "conda-meta").listFiles();
+		if (metas != null) {
+			for (File meta : metas) {
+				if (meta.getName().endsWith(".json")) {
+					found |= readPathsData(meta, files);
+				}
+			}
+		}
+		File[] packages = new File(root, "pkgs").listFiles();
+		if (packages != null) {
+			for (File pkg : packages) {
+				File hasPrefix = new File(pkg, "info" + File.separator + "has_prefix");
+				if (hasPrefix.isFile()) {
+					readHasPrefix(hasPrefix, files);
+					found = true;
+				}
+			}
+		}
+		if (!found) {
+			throw new IOException("Neither conda-meta nor pkgs of the reference record which files contain its prefix");
+		}
+		return files;
+	}
+
+	/**
+	 * Collect the text files with a prefix placeholder from the <code>paths_data</code> of a package record.
+	 *
+	 * @return <code>false</code> if the record has no <code>paths_data</code>
+	 */
+	private static boolean readPathsData(File meta, Set<String> files) throws IOException {
+		String json = new String(Files.readAllBytes(meta.toPath()), UTF8);
+		int pathsData = json.indexOf("\"paths_data\"");
+		if (pathsData < 0) {
+			return false;
+		}
+		Matcher object = JSON_OBJECT.matcher(json);
+		object.region(pathsData, json.length());
+		while (object.find()) {
+			String entry = object.group();
+			Matcher path = JSON_PATH.matcher(entry);
+			if (path.find() && entry.contains("\"prefix_placeholder\"") && !JSON_BINARY.matcher(entry).find()) {
+				files.add(path.group(1).replace("\\/", "/"));
+			}
+		}
+		return true;
+	}
+
+	private static void readHasPrefix(File hasPrefix, Set<String> files) throws IOException {
+		BufferedReader reader = Files.newBufferedReader(hasPrefix.toPath(), UTF8);
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String path = parseHasPrefixLine(line);
+				if (path != null) {
+					files.add(path);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * A has_prefix line is either just a path, or <code>placeholder mode path</code> where any of the fields may be
+	 * quoted. Binary files are skipped, their prefix can not be changed to one of a different length.
+	 */
+	private static String parseHasPrefixLine(String line) {
+		line = line.trim();
+		if (line.length() == 0) {
+			return null;
+		}
+		List<String> fields = new ArrayList<String>(3);
+		int i = 0;
+		while (i < line.length()) {
+			if (line.charAt(i) == ' ') {
+				i++;
+			} else if (line.charAt(i) == '"') {
+				int end = line.indexOf('"', i + 1);
+				if (end < 0) {
+					end = line.length();
+				}
+				fields.add(line.substring(i + 1, end));
+				i = end + 1;
+			} else {
+				int end = line.indexOf(' ', i);
+				if (end < 0) {
+					end = line.length();
+				}
+				fields.add(line.substring(i, end));
+				i = end;
+			}
+		}
+		if (fields.size() >= 3 && "binary".equals(fields.get(1))) {
+			return null;
+		}
+		return fields.get(fields.size() - 1);
+	}
+
+	/**
+	 * State shared by all the tasks of one clone.
+	 */
+	private static final class CloneContext {
+		final File sourceRoot;
+		final String sourcePrefix;
+		final String destinationPrefix;
+		final Set<String> prefixFiles;
+		final IProgressMonitor monitor;
+		volatile boolean link;
+		boolean symlink;
+		Set<String> excluded;
+		final AtomicInteger linked = new AtomicInteger();
+		final AtomicInteger symlinked = new AtomicInteger();
+		final AtomicInteger copied = new AtomicInteger();
+		final AtomicInteger rewritten = new AtomicInteger();
+
+		final AtomicInteger done = new AtomicInteger();
+
+		void fileDone() {
+			int count = done.incrementAndGet();
+			if (count % PROGRESS_INTERVAL == 0) {
+				monitor.subTask(count + " files cloned");
+			}
+		}
+
+		CloneContext(File sourceRoot, File destinationRoot, Set<String> prefixFiles, boolean link,
+				IProgressMonitor monitor) {
+			this.sourceRoot = sourceRoot;
+			this.sourcePrefix = sourceRoot.getPath();
+			this.destinationPrefix = destinationRoot.getPath();
+			this.prefixFiles = Collections.unmodifiableSet(prefixFiles);
+			this.link = link;
+			this.monitor = monitor;
+		}
+
+		String relativePath(File file) {
+			return file.getPath().substring(sourcePrefix.length() + 1).replace(File.separatorChar, '/');
+		}
+	}
+
+	/**
+	 * Clones one directory, forking a task for each of its subdirectories.
+	 */
+	private static final class CloneDirectoryTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final CloneContext context;
+		private final File source;
+		private final File destination;
+
+		CloneDirectoryTask(CloneContext context, File source, File destination) {
+			this.context = context;
+			this.source = source;
+			this.destination = destination;
+		}
+
+		@Override
+		protected void compute() {
+			if (context.monitor.isCanceled()) {
+				return;
+			}
+			List<CloneDirectoryTask> subdirectories = new ArrayList<CloneDirectoryTask>();
+			try {
+				Files.createDirectories(destination.toPath());
+				DirectoryStream<Path> entries = Files.newDirectoryStream(source.toPath());
+				try {
+					for (Path entry : entries) {
+						File from = entry.toFile();
+						if (source.equals(context.sourceRoot) && context.excluded.contains(from.getName())) {
+							continue;
+						}
+						File to = new File(destination, from.getName());
+						BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class,
+								LinkOption.NOFOLLOW_LINKS);
+						if (attributes.isSymbolicLink()) {
+							cloneSymbolicLink(entry, to);
+						} else if (attributes.isDirectory()) {
+							subdirectories.add(new CloneDirectoryTask(context, from, to));
+						} else {
+							cloneFile(from, to, attributes.size());
+							context.fileDone();
+						}
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			invokeAll(subdirectories);
+		}
+
+		private void cloneSymbolicLink(Path entry, File to) throws IOException {
+			String target = Files.readSymbolicLink(entry).toString();
+			if (target.startsWith(context.sourcePrefix + File.separator)) {
+				target = context.destinationPrefix + target.substring(context.sourcePrefix.length());
+			}
+			Files.deleteIfExists(to.toPath());
+			Files.createSymbolicLink(to.toPath(), new File(target).toPath());
+		}
+
+		private void cloneFile(File from, File to, long size) throws IOException {
+			String relative = context.relativePath(from);
+			boolean script = relative.startsWith("bin/") && size <= MAX_SCRIPT_SIZE;
+			if (context.prefixFiles.contains(relative) || script) {
+				byte[] contents = Files.readAllBytes(from.toPath());
+				if (!isBinary(contents)) {
+					byte[] rewritten = replacePrefix(contents);
+					if (rewritten != contents) {
+						Files.write(to.toPath(), rewritten);
+						to.setExecutable(from.canExecute());
+						context.rewritten.incrementAndGet();
+						return;
+					}
+				}
+			}
+
+			if (context.link) {
+				try {
+					Files.deleteIfExists(to.toPath());
+					Files.createLink(to.toPath(), from.toPath());
+					context.linked.incrementAndGet();
+					return;
+				} catch (IOException e) {
+					// e.g. the file store does not support hard links, copy everything from now on
+					context.link = false;
+				} catch (UnsupportedOperationException e) {
+					context.link = false;
+				}
+			}
+			if (context.symlink && !relative.startsWith("bin/")) {
+				Files.deleteIfExists(to.toPath());
+				Files.createSymbolicLink(to.toPath(), from.toPath());
+				context.symlinked.incrementAndGet();
+				return;
+			}
+			Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.COPY_ATTRIBUTES);
+			context.copied.incrementAndGet();
+		}
+
+		private boolean isBinary(byte[] contents) {
+			int end = Math.min(contents.length, BINARY_CHECK_SIZE);
+			for (int i = 0; i < end; i++) {
+				if (contents[i] == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return the contents with every occurrence of the source prefix replaced, or the same array if there were
+		 *         none
+		 */
+		private byte[] replacePrefix(byte[] contents) {
+			// Text files are UTF-8 or ASCII, either way ISO-8859-1 maps the bytes to chars and back unchanged
+			Charset latin1 = Charset.forName("ISO-8859-1");
+			String text = new String(contents, latin1);
+			String from = new String(context.sourcePrefix.getBytes(UTF8), latin1);
+			String to = new String(context.destinationPrefix.getBytes(UTF8), latin1);
+			StringBuilder replaced = null;
+			int copied = 0;
+			for (int i = text.indexOf(from); i >= 0; i = text.indexOf(from, i + from.length())) {
+				int end = i + from.length();
+				if (end < text.length() && isPathChar(text.charAt(end))) {
+					// the prefix only starts a longer name, e.g. /opt/ref2 for /opt/ref
+					continue;
+				}
+				if (replaced == null) {
+					replaced = new StringBuilder(text.length() + 64);
+				}
+				replaced.append(text, copied, i).append(to);
+				copied = end;
+			}
+			if (replaced == null) {
+				return contents;
+			}
+			replaced.append(text, copied, text.length());
+			return replaced.toString().getBytes(latin1);
+		}
+
+		/**
+		 * @return <code>true</code> if the character continues a file name, rather than ending the path or starting
+		 *         its next component
+		 */
+		private boolean isPathChar(char c) {
+			return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == '+' || c == '~';
+		}
+	}
+}
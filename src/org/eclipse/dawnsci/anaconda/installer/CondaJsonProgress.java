@@ -0,0 +1,189 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.dawnsci.anaconda.installer.CondaJsonStreamParser.Record;
+
+/**
+ * Turns the <code>--json</code> output of <code>conda install</code> into progress on a monitor and readable lines on
+ * an {@link InstallOutputHandler}.
+ * <p>
+ * Conda reports a download as a series of <code>fetch</code> records counting bytes up to <code>maxval</code>, one
+ * series per package, followed by one series of <code>name</code> records per extract and link step counting
+ * packages. How many packages will be downloaded is not known up front, so each download takes a fixed share of
+ * what is left of the download budget. The extract and link steps share the remainder of the work.
+ * <p>
+ * The time until the first record (solving), the time spent downloading and the time spent extracting and linking
+ * are recorded in the metrics as <code>anaconda.solve</code>, <code>anaconda.fetch</code> and
+ * <code>anaconda.link</code>.
+ */
+final class CondaJsonProgress implements ProcessSupervisor.StreamListener, CondaJsonStreamParser.RecordListener {
+
+	private static final int FETCH_WEIGHT = 60;
+	private static final int PACKAGES_WEIGHT = 40;
+
+	/**
+	 * Each download is given 1 / FETCH_SHARE_DIVISOR of the remaining download budget
+	 */
+	private static final int FETCH_SHARE_DIVISOR = 20;
+
+	/**
+	 * Resolution of the progress within a single series of records
+	 */
+	private static final int SERIES_TICKS = 1000;
+
+	private final CondaJsonStreamParser parser = new CondaJsonStreamParser(this);
+	private final InstallOutputHandler feedbackHandler;
+	private final SubMonitor fetchProgress;
+	private final SubMonitor packagesProgress;
+
+	/** Progress of the series currently being reported, <code>null</code> between series */
+	private SubMonitor series;
+	private int seriesReported;
+	private boolean seriesIsFetch;
+	private long bytesFetched;
+	private int packagesFetched;
+	private String result;
+	private boolean success;
+	private boolean hasResult;
+
+	private final InstallMetrics metrics;
+	/** The step being timed, <code>null</code> once conda finished */
+	private InstallMetrics.Span step;
+	private boolean fetchStarted;
+	private boolean linkStarted;
+
+	/**
+	 * @param monitor
+	 *            monitor for the whole conda phase, the caller is responsible for {@link IProgressMonitor#done()}
+	 * @param feedbackHandler
+	 *            receives a line for each package downloaded or linked
+	 * @param metrics
+	 *            records the time of each step and the packages and bytes downloaded
+	 */
+	CondaJsonProgress(IProgressMonitor monitor, InstallOutputHandler feedbackHandler, InstallMetrics metrics) {
+		this.feedbackHandler = feedbackHandler;
+		this.metrics = metrics;
+		step = metrics.start("anaconda.solve");
+		SubMonitor progress = SubMonitor.convert(monitor, FETCH_WEIGHT + PACKAGES_WEIGHT);
+		fetchProgress = progress.newChild(FETCH_WEIGHT);
+		packagesProgress = progress.newChild(PACKAGES_WEIGHT);
+	}
+
+	@Override
+	public void output(char[] chars, int offset, int length) {
+		parser.parse(chars, offset, length);
+	}
+
+	@Override
+	public void record(Record record) {
+		if (record.success != null || record.error != null) {
+			hasResult = true;
+			success = record.success != null && record.success.booleanValue() && record.error == null;
+			result = record.error != null ? record.error : record.message;
+			done();
+			return;
+		}
+
+		if (series == null || record.isFetch != seriesIsFetch) {
+			startSeries(record);
+		}
+
+		if (record.name != null && !seriesIsFetch) {
+			feedbackHandler.output(record.name + "\n");
+			if (record.maxval > 0 && record.progress >= 0) {
+				series.subTask("Installing packages (" + (int) record.progress + " of " + (int) record.maxval + "): "
+						+ record.name);
+			}
+		}
+
+		if (record.finished) {
+			if (seriesIsFetch && record.maxval > 0) {
+				bytesFetched += (long) record.maxval;
+				packagesFetched++;
+				metrics.count("anaconda.fetch.bytes", (long) record.maxval);
+				metrics.count("anaconda.fetch.packages", 1);
+			}
+			series.done();
+			series = null;
+		} else if (record.maxval > 0 && record.progress >= 0) {
+			int ticks = (int) Math.min(SERIES_TICKS, record.progress * SERIES_TICKS / record.maxval);
+			if (ticks > seriesReported) {
+				series.worked(ticks - seriesReported);
+				seriesReported = ticks;
+			}
+		}
+	}
+
+	private void startSeries(Record record) {
+		if (series != null) {
+			series.done();
+		}
+		seriesIsFetch = record.isFetch;
+		seriesReported = 0;
+		if (seriesIsFetch ? !fetchStarted && !linkStarted : !linkStarted) {
+			startStep(seriesIsFetch ? "anaconda.fetch" : "anaconda.link");
+			fetchStarted |= seriesIsFetch;
+			linkStarted |= !seriesIsFetch;
+		}
+		if (seriesIsFetch) {
+			fetchProgress.setWorkRemaining(FETCH_SHARE_DIVISOR);
+			series = SubMonitor.convert(fetchProgress.newChild(1), SERIES_TICKS);
+			if (record.fetch != null) {
+				String size = record.maxval > 0 ? " (" + formatBytes((long) record.maxval) + ")" : "";
+				feedbackHandler.output("Fetching " + record.fetch + size + "\n");
+				series.subTask("Fetching " + record.fetch + size + ", " + packagesFetched + " packages ("
+						+ formatBytes(bytesFetched) + ") done");
+			}
+		} else {
+			// extract and link steps each take half of what is left
+			packagesProgress.setWorkRemaining(2);
+			series = SubMonitor.convert(packagesProgress.newChild(1), SERIES_TICKS);
+		}
+	}
+
+	private void startStep(String name) {
+		if (step != null) {
+			step.end();
+		}
+		step = metrics.start(name);
+	}
+
+	/**
+	 * End the timing of the current step, called when conda has finished.
+	 */
+	void done() {
+		if (step != null) {
+			step.end();
+			step = null;
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if conda reported whether the command succeeded
+	 */
+	boolean hasResult() {
+		return hasResult;
+	}
+
+	/**
+	 * @return <code>true</code> if conda reported that the command succeeded
+	 */
+	boolean isSuccess() {
+		return success;
+	}
+
+	/**
+	 * @return the error or message conda finished with, or <code>null</code> if it did not report one
+	 */
+	String getResultMessage() {
+		return result;
+	}
+
+	private static String formatBytes(long bytes) {
+		if (bytes < 1024 * 1024) {
+			return (bytes / 1024) + " KB";
+		}
+		return (bytes / (1024 * 1024)) + "." + ((bytes % (1024 * 1024)) * 10 / (1024 * 1024)) + " MB";
+	}
+}
@@ -0,0 +1,320 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * Incremental parser for the stream of JSON records conda writes to stdout when run with <code>--json</code>.
+ * <p>
+ * Conda writes one top level object per progress event, separated by newlines and NUL characters, and finishes with
+ * a result object. This parser is fed arbitrary chunks of that stream and calls its {@link RecordListener} each time
+ * a top level object completes. Only the scalar members conda uses for progress and results are decoded; nested
+ * values (such as the <code>actions</code> of the result) are skipped without being buffered, and the same
+ * {@link Record} instance is reused for every callback so parsing a long install allocates little more than the
+ * package names.
+ */
+public final class CondaJsonStreamParser {
+
+	/**
+	 * Receives each top level record as it completes
+	 */
+	public interface RecordListener {
+		/**
+		 * @param record
+		 *            the completed record, only valid for the duration of the call
+		 */
+		void record(Record record);
+	}
+
+	/**
+	 * The members of a conda JSON record that are of interest for progress and error reporting. Members absent from
+	 * the record are <code>null</code>, or <code>-1</code> for numbers.
+	 */
+	public static final class Record {
+		/**
+		 * <code>true</code> if the record had a <code>fetch</code> member, even if its value was <code>null</code>
+		 */
+		public boolean isFetch;
+		/** Package being downloaded */
+		public String fetch;
+		/** Package being extracted or linked */
+		public String name;
+		public double progress;
+		public double maxval;
+		public boolean finished;
+		/** Result of the whole command, <code>null</code> on progress records */
+		public Boolean success;
+		public String error;
+		public String message;
+
+		private void reset() {
+			isFetch = false;
+			fetch = null;
+			name = null;
+			progress = -1;
+			maxval = -1;
+			finished = false;
+			success = null;
+			error = null;
+			message = null;
+		}
+	}
+
+	private static final int KEY_OTHER = 0;
+	private static final int KEY_FETCH = 1;
+	private static final int KEY_NAME = 2;
+	private static final int KEY_PROGRESS = 3;
+	private static final int KEY_MAXVAL = 4;
+	private static final int KEY_FINISHED = 5;
+	private static final int KEY_SUCCESS = 6;
+	private static final int KEY_ERROR = 7;
+	private static final int KEY_MESSAGE = 8;
+
+	private final RecordListener listener;
+	private final Record record = new Record();
+	private final StringBuilder token = new StringBuilder();
+
+	/** Nesting depth of objects and arrays, top level record members are at depth 1 */
+	private int depth;
+	private boolean inString;
+	private boolean escape;
+	private int unicodeRemaining;
+	private int unicodeValue;
+	/** At depth 1, whether the next string is a member name rather than a value */
+	private boolean expectKey;
+	/** Whether {@link #token} holds an unquoted scalar (number, boolean, null) that is still being read */
+	private boolean inScalar;
+	private int currentKey;
+
+	/**
+	 * @param listener
+	 *            called as each record completes
+	 */
+	public CondaJsonStreamParser(RecordListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Parse the next chunk of the stream.
+	 */
+	public void parse(char[] chars, int offset, int length) {
+		int end = offset + length;
+		for (int i = offset; i < end; i++) {
+			parse(chars[i]);
+		}
+	}
+
+	private void parse(char c) {
+		if (inString) {
+			parseStringChar(c);
+			return;
+		}
+		if (depth == 0) {
+			// between records conda writes newlines and NULs, anything else that is not an object is not ours
+			if (c == '{') {
+				depth = 1;
+				record.reset();
+				expectKey = true;
+				currentKey = KEY_OTHER;
+			}
+			return;
+		}
+
+		if (inScalar) {
+			if (isScalarChar(c)) {
+				token.append(c);
+				return;
+			}
+			endScalar();
+		}
+
+		switch (c) {
+		case '"':
+			inString = true;
+			if (depth == 1) {
+				token.setLength(0);
+			}
+			break;
+		case '{':
+		case '[':
+			depth++;
+			break;
+		case '}':
+		case ']':
+			depth--;
+			if (depth == 0) {
+				listener.record(record);
+			}
+			break;
+		case ':':
+			if (depth == 1) {
+				expectKey = false;
+			}
+			break;
+		case ',':
+			if (depth == 1) {
+				expectKey = true;
+				currentKey = KEY_OTHER;
+			}
+			break;
+		default:
+			if (depth == 1 && !expectKey && isScalarChar(c)) {
+				inScalar = true;
+				token.setLength(0);
+				token.append(c);
+			}
+			break;
+		}
+	}
+
+	private void parseStringChar(char c) {
+		if (unicodeRemaining > 0) {
+			unicodeValue = (unicodeValue << 4) + Character.digit(c, 16);
+			if (--unicodeRemaining == 0) {
+				appendStringChar((char) unicodeValue);
+			}
+			return;
+		}
+		if (escape) {
+			escape = false;
+			switch (c) {
+			case 'n':
+				appendStringChar('\n');
+				break;
+			case 't':
+				appendStringChar('\t');
+				break;
+			case 'r':
+				appendStringChar('\r');
+				break;
+			case 'b':
+				appendStringChar('\b');
+				break;
+			case 'f':
+				appendStringChar('\f');
+				break;
+			case 'u':
+				unicodeRemaining = 4;
+				unicodeValue = 0;
+				break;
+			default:
+				appendStringChar(c);
+				break;
+			}
+			return;
+		}
+		if (c == '\\') {
+			escape = true;
+		} else if (c == '"') {
+			inString = false;
+			if (depth == 1) {
+				endString();
+			}
+		} else {
+			appendStringChar(c);
+		}
+	}
+
+	private void appendStringChar(char c) {
+		if (depth == 1) {
+			token.append(c);
+		}
+	}
+
+	private void endString() {
+		if (expectKey) {
+			currentKey = lookupKey();
+			return;
+		}
+		switch (currentKey) {
+		case KEY_FETCH:
+			record.isFetch = true;
+			record.fetch = token.toString();
+			break;
+		case KEY_NAME:
+			record.name = token.toString();
+			break;
+		case KEY_ERROR:
+			record.error = token.toString();
+			break;
+		case KEY_MESSAGE:
+			record.message = token.toString();
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void endScalar() {
+		inScalar = false;
+		switch (currentKey) {
+		case KEY_FETCH:
+			// "fetch": null
+			record.isFetch = true;
+			break;
+		case KEY_PROGRESS:
+			record.progress = parseNumber();
+			break;
+		case KEY_MAXVAL:
+			record.maxval = parseNumber();
+			break;
+		case KEY_FINISHED:
+			record.finished = isTrue();
+			break;
+		case KEY_SUCCESS:
+			record.success = Boolean.valueOf(isTrue());
+			break;
+		default:
+			break;
+		}
+	}
+
+	private int lookupKey() {
+		if (contentEquals("fetch")) {
+			return KEY_FETCH;
+		} else if (contentEquals("name")) {
+			return KEY_NAME;
+		} else if (contentEquals("progress")) {
+			return KEY_PROGRESS;
+		} else if (contentEquals("maxval")) {
+			return KEY_MAXVAL;
+		} else if (contentEquals("finished")) {
+			return KEY_FINISHED;
+		} else if (contentEquals("success")) {
+			return KEY_SUCCESS;
+		} else if (contentEquals("error")) {
+			return KEY_ERROR;
+		} else if (contentEquals("message")) {
+			return KEY_MESSAGE;
+		}
+		return KEY_OTHER;
+	}
+
+	private boolean contentEquals(String key) {
+		if (token.length() != key.length()) {
+			return false;
+		}
+		for (int i = 0; i < key.length(); i++) {
+			if (token.charAt(i) != key.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isTrue() {
+		return contentEquals("true");
+	}
+
+	private double parseNumber() {
+		if (contentEquals("null")) {
+			return -1;
+		}
+		try {
+			return Double.parseDouble(token.toString());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static boolean isScalarChar(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'z') || c == '-' || c == '+' || c == '.' || c == 'E';
+	}
+}
@@ -0,0 +1,102 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that the packages installed in a conda prefix are closed under their dependencies, i.e. that every package
+ * a linked package depends on is linked as well. conda solves for this when it installs a package, but not when it
+ * installs an explicit package list, which is how installs of a package profile reuse an earlier one.
+ * <p>
+ * The packages are those with metadata in <code>conda-meta</code>, named after the package, version and build, and
+ * the dependencies those listed in the <code>depends</code> member of the metadata as <code>name version</code>.
+ */
+final class DependencyClosure {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final Pattern DEPENDS = Pattern.compile("\"depends\"\\s*:\\s*\\[([^\\]]*)\\]");
+	private static final Pattern STRING = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+	private DependencyClosure() {
+	}
+
+	/**
+	 * Find the dependencies missing from a prefix.
+	 *
+	 * @param prefix
+	 *            conda prefix
+	 * @return descriptions of the missing dependencies, as <code>package (needed by package-version-build)</code>,
+	 *         empty if the packages are closed under their dependencies or there are none
+	 */
+	static List<String> findMissing(File prefix) {
+		File[] metas = new File(prefix, "conda-meta").listFiles();
+		List<String> missing = new ArrayList<String>();
+		if (metas == null) {
+			return missing;
+		}
+		Map<String, File> installed = new HashMap<String, File>();
+		for (File meta : metas) {
+			String name = getPackageName(meta.getName());
+			if (name != null) {
+				installed.put(name, meta);
+			}
+		}
+		Set<String> sorted = new TreeSet<String>();
+		for (File meta : installed.values()) {
+			String dist = meta.getName().substring(0, meta.getName().length() - ".json".length());
+			for (String dependency : readDependencies(meta)) {
+				if (!installed.containsKey(dependency)) {
+					sorted.add(dependency + " (needed by " + dist + ")");
+				}
+			}
+		}
+		missing.addAll(sorted);
+		return missing;
+	}
+
+	/**
+	 * @return the package name of a <code>name-version-build.json</code> metadata file, or <code>null</code> if it is
+	 *         not one
+	 */
+	private static String getPackageName(String fileName) {
+		if (!fileName.endsWith(".json")) {
+			return null;
+		}
+		int build = fileName.lastIndexOf('-');
+		int version = build > 0 ? fileName.lastIndexOf('-', build - 1) : -1;
+		return version > 0 ? fileName.substring(0, version) : null;
+	}
+
+	private static List<String> readDependencies(File meta) {
+		List<String> dependencies = new ArrayList<String>();
+		String json;
+		try {
+			json = new String(Files.readAllBytes(meta.toPath()), UTF8);
+		} catch (IOException e) {
+			// an unreadable package is reported by conda, not here
+			return dependencies;
+		}
+		Matcher depends = DEPENDS.matcher(json);
+		if (depends.find()) {
+			Matcher string = STRING.matcher(depends.group(1));
+			while (string.find()) {
+				String spec = string.group(1).trim();
+				if (spec.length() > 0) {
+					dependencies.add(spec.split("\\s+")[0]);
+				}
+			}
+		}
+		return dependencies;
+	}
+}
@@ -0,0 +1,145 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.dawnsci.anaconda.Activator;
+
+/**
+ * Checks ahead of an install that its destination can take it: that it is a directory or can be created, that its
+ * file system has room for the installation, and that it can be written to fast enough for the install to complete
+ * in reasonable time. A full or very slow disk is otherwise only found well into the conda phase.
+ * <p>
+ * The checks touch the file system, which may be remote, so they are meant to be run off the UI thread. The write
+ * speed is measured once per directory by writing and syncing a small file, and remembered.
+ */
+public final class DestinationPreflight {
+
+	/**
+	 * Disk space taken by an installation of the anaconda packages, with their package cache
+	 */
+	public static final long EXPECTED_INSTALL_SIZE = 3L * 1024 * 1024 * 1024;
+
+	/**
+	 * Size of the file written to measure the write speed
+	 */
+	private static final int PROBE_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * Write speeds, in bytes per second, below which the destination is rejected or warned about
+	 */
+	private static final double MIN_WRITE_RATE = 1024 * 1024;
+	private static final double SLOW_WRITE_RATE = 10 * 1024 * 1024;
+
+	private static final double GB = 1024 * 1024 * 1024;
+
+	private final Map<File, Double> writeRates = new HashMap<File, Double>();
+
+	/**
+	 * Check a destination for an installation of the full anaconda packages.
+	 *
+	 * @param installDir
+	 *            absolute path to install to
+	 * @return an error if the install can not go there, a warning if it can but should maybe not, otherwise OK
+	 */
+	public IStatus check(File installDir) {
+		return check(installDir, EXPECTED_INSTALL_SIZE);
+	}
+
+	/**
+	 * Check a destination.
+	 *
+	 * @param installDir
+	 *            absolute path to install to
+	 * @param installSize
+	 *            bytes the installation takes, see {@link PackageProfile#getSize()}
+	 * @return an error if the install can not go there, a warning if it can but should maybe not, otherwise OK
+	 */
+	public IStatus check(File installDir, long installSize) {
+		if (installDir.exists() && !installDir.isDirectory()) {
+			return error("Selected destination already exists, but is not a directory");
+		}
+		File existing = installDir;
+		while (existing != null && !existing.isDirectory()) {
+			existing = existing.getParentFile();
+		}
+		if (existing == null) {
+			return error("Selected destination is not on an existing file system");
+		}
+
+		long usable = existing.getUsableSpace();
+		if (usable < installSize) {
+			return error(String.format("Only %.1f GB is free on the file system of the selected destination, "
+					+ "the installation needs about %.1f GB", usable / GB, installSize / GB));
+		}
+
+		double rate;
+		try {
+			rate = getWriteRate(existing);
+		} catch (IOException e) {
+			return error("Selected destination can not be written to: " + e.getMessage());
+		}
+		long minutes = (long) Math.ceil(installSize / rate / 60);
+		if (rate < MIN_WRITE_RATE) {
+			return error(String.format("Selected destination is written to at %.1f MB/s, "
+					+ "writing the installation would take over %d minutes", rate / (1024 * 1024), minutes));
+		}
+
+		String warning = null;
+		if (installDir.isDirectory()) {
+			warning = "Selected destination already exists. "
+					+ "Only an earlier install of the same installer can be resumed in it.";
+		}
+		if (rate < SLOW_WRITE_RATE) {
+			String slow = String.format("Selected destination is slow to write to, writing the installation "
+					+ "will take about %d minutes.", minutes);
+			warning = warning == null ? slow : warning + " " + slow;
+		}
+		if (warning != null) {
+			return new Status(IStatus.WARNING, Activator.PLUGIN_ID, warning);
+		}
+		return Status.OK_STATUS;
+	}
+
+	/**
+	 * @return bytes per second written and synced to the directory
+	 */
+	private double getWriteRate(File dir) throws IOException {
+		synchronized (writeRates) {
+			Double rate = writeRates.get(dir);
+			if (rate != null) {
+				return rate.doubleValue();
+			}
+		}
+		File probe = File.createTempFile(".anaconda_preflight", null, dir);
+		try {
+			byte[] buffer = new byte[1024 * 1024];
+			long start = System.nanoTime();
+			FileOutputStream out = new FileOutputStream(probe);
+			try {
+				for (int written = 0; written < PROBE_SIZE; written += buffer.length) {
+					out.write(buffer);
+				}
+				out.getChannel().force(true);
+			} finally {
+				out.close();
+			}
+			double rate = PROBE_SIZE / Math.max((System.nanoTime() - start) / 1e9, 1e-6);
+			synchronized (writeRates) {
+				writeRates.put(dir, Double.valueOf(rate));
+			}
+			return rate;
+		} finally {
+			probe.delete();
+		}
+	}
+
+	private static IStatus error(String message) {
+		return new Status(IStatus.ERROR, Activator.PLUGIN_ID, message);
+	}
+}
@@ -0,0 +1,84 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.eclipse.dawnsci.anaconda.Activator;
+
+/**
+ * Explicit package lists (<code>conda list --explicit --md5</code>) of earlier successful installs, so later installs
+ * can give conda the exact packages to install instead of having it solve the dependencies of the anaconda package
+ * again.
+ * <p>
+ * A list is kept per installer payload and platform in the plug-in state location. An install from a list gets the
+ * same package URLs and checksums as the install the list was taken from, which makes it reproducible as well as
+ * faster. A list that fails to install is removed, so the next install solves again.
+ */
+final class ExplicitSpecCache {
+
+	private static final String CACHE_DIR = "explicit";
+	private static final String EXPLICIT_MARKER = "@EXPLICIT";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ExplicitSpecCache() {
+	}
+
+	/**
+	 * @param installerName
+	 *            file name of the installer payload, which includes its version
+	 * @return the cached list for the payload on this platform, or <code>null</code> if there is none
+	 */
+	static synchronized File getSpec(String installerName) {
+		File spec = getSpecFile(installerName);
+		return spec.isFile() ? spec : null;
+	}
+
+	/**
+	 * Cache the list taken from a successful install.
+	 *
+	 * @param contents
+	 *            output of <code>conda list --explicit</code>
+	 * @return <code>false</code> if the contents are not an explicit list or could not be stored
+	 */
+	static synchronized boolean store(String installerName, String contents) {
+		if (!contents.contains(EXPLICIT_MARKER)) {
+			return false;
+		}
+		File spec = getSpecFile(installerName);
+		File part = new File(spec.getPath() + ".part");
+		try {
+			Files.createDirectories(spec.getParentFile().toPath());
+			Writer writer = new OutputStreamWriter(new FileOutputStream(part), UTF8);
+			try {
+				writer.write(contents);
+			} finally {
+				writer.close();
+			}
+			Files.move(part.toPath(), spec.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		} catch (IOException e) {
+			part.delete();
+			return false;
+		}
+	}
+
+	/**
+	 * Forget the list for the payload, e.g. because installing from it failed.
+	 */
+	static synchronized void remove(String installerName) {
+		getSpecFile(installerName).delete();
+	}
+
+	private static File getSpecFile(String installerName) {
+		String key = installerName + "-" + System.getProperty("os.name") + "-" + System.getProperty("os.arch");
+		return Activator.getStateLocation().append(CACHE_DIR).append(key.replaceAll("[^A-Za-z0-9._-]", "_") + ".txt")
+				.toFile();
+	}
+}
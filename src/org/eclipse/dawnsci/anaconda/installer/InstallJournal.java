@@ -0,0 +1,193 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Records in the install directory how far an install got, so that running it again to the same location can skip
+ * what already completed.
+ * <p>
+ * The journal holds the phases that started and those that completed and, for the conda phase, the packages that were linked when it last
+ * stopped, taken from the package records conda writes to <code>conda-meta</code> as it links each package. Conda
+ * itself skips linked packages and reuses downloads left in <code>pkgs</code>, so rerunning the conda phase continues
+ * where it stopped. A journal written for a different installer payload is ignored.
+ * <p>
+ * The journal is replaced as a whole on each update, so an interrupted write leaves the previous journal.
+ */
+final class InstallJournal {
+
+	/**
+	 * Name of the journal file in the install directory
+	 */
+	static final String FILE_NAME = ".anaconda_install_journal";
+
+	/**
+	 * Phase in which the Miniconda installer is run
+	 */
+	static final String MINICONDA_PHASE = "miniconda";
+
+	/**
+	 * Phase in which conda installs the anaconda packages
+	 */
+	static final String ANACONDA_PHASE = "anaconda";
+
+	/**
+	 * Phase in which the installed packages are compiled to bytecode
+	 */
+	static final String COMPILE_PHASE = "compile";
+
+	/**
+	 * Phase in which a completed install is made into a shared base, see {@link SharedBaseInstaller}
+	 */
+	static final String SHARED_PHASE = "shared";
+
+	private static final String INSTALLER_KEY = "installer";
+	private static final String PHASE_KEY_PREFIX = "phase.";
+	private static final String STARTED_KEY_PREFIX = "started.";
+	private static final String LINKED_KEY = "linked";
+
+	private final File file;
+	private final Properties properties = new Properties();
+	private boolean sameInstaller;
+
+	/**
+	 * Read the journal of an install, if there is one.
+	 *
+	 * @param installDir
+	 *            install directory
+	 * @param installer
+	 *            name of the installer payload, the journal only applies to installs with the same payload
+	 */
+	InstallJournal(File installDir, String installer) {
+		this(installDir);
+		sameInstaller = installer.equals(properties.getProperty(INSTALLER_KEY));
+		if (!sameInstaller) {
+			properties.clear();
+		}
+		properties.setProperty(INSTALLER_KEY, installer);
+	}
+
+	/**
+	 * Read the journal of an install whatever payload it was made with, for the phases that follow the install itself.
+	 *
+	 * @param installDir
+	 *            install directory
+	 */
+	InstallJournal(File installDir) {
+		this.file = new File(installDir, FILE_NAME);
+		if (file.isFile()) {
+			try {
+				InputStream in = new FileInputStream(file);
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				// An unreadable journal is the same as none, the install starts from the beginning
+				properties.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return <code>true</code> if a journal was read and it was written for the installer payload given
+	 */
+	boolean isSameInstaller() {
+		return sameInstaller;
+	}
+
+	/**
+	 * @return <code>true</code> if the phase was started in an earlier run
+	 */
+	boolean isStarted(String phase) {
+		return properties.containsKey(STARTED_KEY_PREFIX + phase);
+	}
+
+	/**
+	 * Record that a phase started.
+	 */
+	void start(String phase) {
+		properties.setProperty(STARTED_KEY_PREFIX + phase, Long.toString(System.currentTimeMillis()));
+		write();
+	}
+
+	/**
+	 * @return <code>true</code> if the phase completed in an earlier run
+	 */
+	boolean isComplete(String phase) {
+		return properties.containsKey(PHASE_KEY_PREFIX + phase);
+	}
+
+	/**
+	 * Record that a phase completed.
+	 */
+	void complete(String phase) {
+		properties.setProperty(PHASE_KEY_PREFIX + phase, Long.toString(System.currentTimeMillis()));
+		write();
+	}
+
+	/**
+	 * @return the packages linked when the conda phase last stopped
+	 */
+	List<String> getLinkedPackages() {
+		List<String> packages = new ArrayList<String>();
+		String linked = properties.getProperty(LINKED_KEY, "");
+		for (String name : linked.split(",")) {
+			if (name.length() > 0) {
+				packages.add(name);
+			}
+		}
+		return packages;
+	}
+
+	/**
+	 * Record which packages are linked into the install now, as listed in its <code>conda-meta</code>.
+	 *
+	 * @return number of packages linked
+	 */
+	int recordLinkedPackages() {
+		StringBuilder linked = new StringBuilder();
+		int count = 0;
+		File[] metas = new File(file.getParentFile(), "conda-meta").listFiles();
+		if (metas != null) {
+			for (File meta : metas) {
+				String name = meta.getName();
+				if (name.endsWith(".json")) {
+					if (count++ > 0) {
+						linked.append(',');
+					}
+					linked.append(name, 0, name.length() - ".json".length());
+				}
+			}
+		}
+		properties.setProperty(LINKED_KEY, linked.toString());
+		write();
+		return count;
+	}
+
+	private void write() {
+		File part = new File(file.getPath() + ".part");
+		try {
+			OutputStream out = new FileOutputStream(part);
+			try {
+				properties.store(out, "Anaconda install progress, delete to install from the beginning");
+			} finally {
+				out.close();
+			}
+			Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// Without a journal the next run starts from the beginning, which is no worse than before
+			part.delete();
+		}
+	}
+}
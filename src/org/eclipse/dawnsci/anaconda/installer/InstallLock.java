@@ -0,0 +1,124 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * An advisory lock on an install location, held for as long as an install to it runs, so that two Eclipse
+ * instances sharing a home directory do not install into the same prefix at once.
+ * <p>
+ * The lock is taken on a file next to the install directory rather than in it, since the Miniconda installer
+ * expects to create the directory. The file holds who took the lock, for telling the user what they are waiting
+ * for. The operating system releases the lock if its holder dies, and NFS does as well through its lock manager.
+ */
+final class InstallLock {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Lock files locked by this process. Closing any channel of a file releases every lock this process holds on it,
+	 * so a file locked here must not be opened again to try its lock.
+	 */
+	private static final Set<File> HELD = new HashSet<File>();
+
+	private final File lockFile;
+	private final RandomAccessFile file;
+	private final FileLock lock;
+
+	private InstallLock(File lockFile, RandomAccessFile file, FileLock lock) {
+		this.lockFile = lockFile;
+		this.file = file;
+		this.lock = lock;
+	}
+
+	/**
+	 * Take the lock of an install location, if no other install holds it.
+	 *
+	 * @param installDir
+	 *            install directory
+	 * @return the lock, or <code>null</code> if another install holds it
+	 * @throws IOException
+	 *             if the lock file can not be created
+	 */
+	static InstallLock tryAcquire(File installDir) throws IOException {
+		File lockFile = getLockFile(installDir);
+		synchronized (HELD) {
+			if (HELD.contains(lockFile)) {
+				return null;
+			}
+			Files.createDirectories(lockFile.getParentFile().toPath());
+			RandomAccessFile file = new RandomAccessFile(lockFile, "rw");
+			try {
+				FileChannel channel = file.getChannel();
+				FileLock lock = channel.tryLock();
+				if (lock == null) {
+					file.close();
+					return null;
+				}
+				String owner = ManagementFactory.getRuntimeMXBean().getName() + " since " + new Date();
+				channel.truncate(0);
+				channel.write(ByteBuffer.wrap(owner.getBytes(UTF8)), 0);
+				HELD.add(lockFile);
+				return new InstallLock(lockFile, file, lock);
+			} catch (IOException e) {
+				file.close();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * @return who holds the lock of an install location, as <code>pid@host since date</code>, or <code>null</code>
+	 *         if not known
+	 */
+	static String getOwner(File installDir) {
+		File lockFile = getLockFile(installDir);
+		synchronized (HELD) {
+			if (HELD.contains(lockFile)) {
+				return "this process";
+			}
+		}
+		try {
+			String owner = new String(Files.readAllBytes(lockFile.toPath()), UTF8).trim();
+			return owner.length() > 0 ? owner : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Release the lock. The lock file is left in place, deleting it would let another install lock a new file
+	 * while a third still waits on the old one.
+	 */
+	void release() {
+		synchronized (HELD) {
+			try {
+				lock.release();
+			} catch (IOException e) {
+				// released when the file is closed
+			}
+			try {
+				file.close();
+			} catch (IOException e) {
+				// Ignore close error
+			}
+			HELD.remove(lockFile);
+		}
+	}
+
+	private static File getLockFile(File installDir) {
+		File dir = new File(installDir.getAbsoluteFile().toURI().normalize());
+		File parent = dir.getParentFile();
+		return new File(parent != null ? parent : dir, "." + dir.getName() + ".install.lock");
+	}
+}
@@ -0,0 +1,166 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects where the time of an install goes: a span for each phase and step, and counters such as the number of
+ * chars read from each process stream and the number of console updates. Everything recorded is passed on to the
+ * added {@link InstallMetricsListener}s and can be written out as JSON, so installs can be compared across machines
+ * and releases.
+ * <p>
+ * The JSON is a single object, with span and counter names as recorded:
+ * 
+ * <pre>
+ * {"created":1412345678901,
+ *  "spans":[{"name":"miniconda","start":12,"duration":20345}, ...],
+ *  "counts":{"miniconda.stdout.chars":545, ...}}
+ * </pre>
+ */
+public final class InstallMetrics implements InstallMetricsListener {
+
+	/**
+	 * Name of the metrics file the {@link Installer} writes to the install directory
+	 */
+	public static final String FILE_NAME = "anaconda_wizard_install_metrics.json";
+
+	/**
+	 * A phase or step being timed.
+	 */
+	public final class Span {
+		private final String name;
+		private final long startNanos = System.nanoTime();
+		private boolean ended;
+
+		private Span(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * Record the span, only the first call has any effect.
+		 */
+		public void end() {
+			if (!ended) {
+				ended = true;
+				span(name, (startNanos - createdNanos) / 1000000, (System.nanoTime() - startNanos) / 1000000);
+			}
+		}
+	}
+
+	private static final class SpanRecord {
+		final String name;
+		final long start;
+		final long duration;
+
+		SpanRecord(String name, long start, long duration) {
+			this.name = name;
+			this.start = start;
+			this.duration = duration;
+		}
+	}
+
+	private final long created = System.currentTimeMillis();
+	private final long createdNanos = System.nanoTime();
+	private final List<SpanRecord> spans = new ArrayList<SpanRecord>();
+	private final Map<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+	private final List<InstallMetricsListener> listeners = new CopyOnWriteArrayList<InstallMetricsListener>();
+
+	/**
+	 * @param listener
+	 *            listener to pass everything recorded from now on to
+	 */
+	public void addListener(InstallMetricsListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Start timing a phase or step, the span is recorded when it is ended.
+	 */
+	public Span start(String name) {
+		return new Span(name);
+	}
+
+	@Override
+	public void span(String name, long startMillis, long durationMillis) {
+		synchronized (spans) {
+			spans.add(new SpanRecord(name, startMillis, durationMillis));
+		}
+		for (InstallMetricsListener listener : listeners) {
+			listener.span(name, startMillis, durationMillis);
+		}
+	}
+
+	@Override
+	public void count(String name, long delta) {
+		AtomicLong count = counts.get(name);
+		if (count == null) {
+			synchronized (counts) {
+				count = counts.get(name);
+				if (count == null) {
+					count = new AtomicLong();
+					counts.put(name, count);
+				}
+			}
+		}
+		count.addAndGet(delta);
+		for (InstallMetricsListener listener : listeners) {
+			listener.count(name, delta);
+		}
+	}
+
+	/**
+	 * @return current value of a counter, 0 if it was never incremented
+	 */
+	public long getCount(String name) {
+		AtomicLong count = counts.get(name);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return what has been recorded so far as JSON
+	 */
+	public String toJson() {
+		// names are chosen by the installer, so they are plain identifiers that need no escaping
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\"created\":").append(created).append(",\n \"spans\":[");
+		synchronized (spans) {
+			for (int i = 0; i < spans.size(); i++) {
+				SpanRecord span = spans.get(i);
+				sb.append(i == 0 ? "" : ",\n  ").append("{\"name\":\"").append(span.name).append("\",\"start\":")
+						.append(span.start).append(",\"duration\":").append(span.duration).append('}');
+			}
+		}
+		sb.append("],\n \"counts\":{");
+		boolean first = true;
+		for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(counts).entrySet()) {
+			sb.append(first ? "" : ",\n  ").append('"').append(entry.getKey()).append("\":")
+					.append(entry.getValue().get());
+			first = false;
+		}
+		sb.append("}}\n");
+		return sb.toString();
+	}
+
+	/**
+	 * Write what has been recorded so far to a file as JSON.
+	 */
+	public void write(File file) throws IOException {
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+		try {
+			writer.write(toJson());
+		} finally {
+			writer.close();
+		}
+	}
+}
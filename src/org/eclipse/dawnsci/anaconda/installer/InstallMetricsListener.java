@@ -0,0 +1,33 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * Receives timing and counts from an install as they are recorded, see {@link InstallMetrics}.
+ * <p>
+ * Calls can come from any thread, including the threads pumping process output, so implementations must be thread
+ * safe and return quickly.
+ */
+public interface InstallMetricsListener {
+
+	/**
+	 * Called when a phase or step of the install ends.
+	 * 
+	 * @param name
+	 *            name of the phase or step, sub-steps are named with a dotted prefix, e.g. <code>anaconda.fetch</code>
+	 * @param startMillis
+	 *            when the phase started, in milliseconds since the metrics were created
+	 * @param durationMillis
+	 *            how long the phase took in milliseconds
+	 */
+	void span(String name, long startMillis, long durationMillis);
+
+	/**
+	 * Called when a counter is incremented.
+	 * 
+	 * @param name
+	 *            name of the counter, e.g. <code>anaconda.stdout.chars</code>
+	 * @param delta
+	 *            amount added to the counter
+	 */
+	void count(String name, long delta);
+
+}
@@ -0,0 +1,24 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * An {@link InstallOutputHandler} that also takes output in chunks, as the installer reads it from the processes it
+ * runs, without a String being made of each. Handlers that only implement {@link InstallOutputHandler} are given each
+ * chunk as a String instead.
+ */
+public interface InstallOutputChunkHandler extends InstallOutputHandler {
+
+	/**
+	 * Called with a chunk of output that should be displayed in a console like way. This is the bulk form of
+	 * {@link #output(String)} used by the installer when pumping process output; the array is reused by the caller
+	 * once this method returns, so implementations must copy out anything they want to keep.
+	 * 
+	 * @param chars
+	 *            buffer containing the text to display
+	 * @param offset
+	 *            index of the first char to display
+	 * @param length
+	 *            number of chars to display
+	 */
+	void output(char[] chars, int offset, int length);
+
+}
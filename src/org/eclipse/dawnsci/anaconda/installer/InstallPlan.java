@@ -0,0 +1,309 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.dawnsci.anaconda.Activator;
+
+/**
+ * Runs the phases of an install as a graph: each phase declares the phases it depends on, and is started as soon as
+ * they have all completed, so phases that do not depend on each other run at the same time on a bounded pool.
+ * <p>
+ * Each phase gets a monitor of its own, which may be used from its thread only, and a share of the overall progress
+ * given by its weight. The calling thread is the only one to touch the caller's monitor: it starts phases, and
+ * passes on their progress and latest sub-task a few times a second. Cancellation goes both ways: when the caller's
+ * monitor is canceled, or a phase fails, no more phases are started and the monitors of the running phases report
+ * canceled.
+ */
+public final class InstallPlan {
+
+	/**
+	 * The work of a phase.
+	 */
+	public interface Phase {
+		/**
+		 * @param monitor
+		 *            progress of this phase, canceled when the install is
+		 * @throws CoreException
+		 *             if the phase failed, no more phases are started and the first failure is rethrown by
+		 *             {@link InstallPlan#run(IProgressMonitor, String)}
+		 */
+		void run(IProgressMonitor monitor) throws CoreException;
+	}
+
+	/**
+	 * Maximum number of phases run at the same time
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * Units of overall progress per unit of weight
+	 */
+	private static final int TICKS_PER_WEIGHT = 100;
+
+	/**
+	 * How often the caller's monitor is updated
+	 */
+	private static final long UPDATE_INTERVAL_MS = 100;
+
+	private static final class Node {
+		final String name;
+		final int weight;
+		final Phase phase;
+		final List<String> dependsOn;
+		PhaseMonitor monitor;
+		boolean started;
+		boolean completed;
+		int reported;
+
+		Node(String name, int weight, Phase phase, List<String> dependsOn) {
+			this.name = name;
+			this.weight = weight;
+			this.phase = phase;
+			this.dependsOn = dependsOn;
+		}
+	}
+
+	/**
+	 * Progress of one phase, read by the thread running the plan.
+	 */
+	private final class PhaseMonitor implements IProgressMonitor {
+		private final IProgressMonitor root;
+		private double total;
+		private double worked;
+		private String subTask;
+
+		PhaseMonitor(IProgressMonitor root) {
+			this.root = root;
+		}
+
+		@Override
+		public synchronized void beginTask(String name, int totalWork) {
+			total = totalWork;
+			worked = 0;
+		}
+
+		@Override
+		public synchronized void done() {
+			worked = total = 1;
+		}
+
+		@Override
+		public synchronized void internalWorked(double work) {
+			worked += work;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return aborted || root.isCanceled();
+		}
+
+		@Override
+		public void setCanceled(boolean value) {
+			if (value) {
+				aborted = true;
+			}
+		}
+
+		@Override
+		public void setTaskName(String name) {
+			subTask(name);
+		}
+
+		@Override
+		public synchronized void subTask(String name) {
+			subTask = name;
+		}
+
+		@Override
+		public void worked(int work) {
+			internalWorked(work);
+		}
+
+		synchronized double getFraction() {
+			return total > 0 ? Math.min(1, worked / total) : 0;
+		}
+
+		synchronized String takeSubTask() {
+			String name = subTask;
+			subTask = null;
+			return name;
+		}
+	}
+
+	private final Map<String, Node> nodes = new LinkedHashMap<String, Node>();
+	private volatile boolean aborted;
+
+	/**
+	 * Add a phase to the plan. Phases must be added after the phases they depend on.
+	 *
+	 * @param name
+	 *            name of the phase, unique within the plan
+	 * @param weight
+	 *            share of the overall progress of the phase, may be 0
+	 * @param phase
+	 *            the work of the phase
+	 * @param dependsOn
+	 *            names of the phases that must complete before this one starts
+	 * @return this plan
+	 */
+	public InstallPlan add(String name, int weight, Phase phase, String... dependsOn) {
+		for (String dependency : dependsOn) {
+			if (!nodes.containsKey(dependency)) {
+				throw new IllegalArgumentException("Phase " + name + " depends on unknown phase " + dependency);
+			}
+		}
+		if (nodes.containsKey(name)) {
+			throw new IllegalArgumentException("Phase " + name + " added twice");
+		}
+		nodes.put(name, new Node(name, weight, phase, Arrays.asList(dependsOn)));
+		return this;
+	}
+
+	/**
+	 * Run all phases of the plan and wait for them to complete.
+	 *
+	 * @param monitor
+	 *            monitor for the whole plan
+	 * @param taskName
+	 *            task name shown on the monitor
+	 * @return <code>false</code> if the monitor was canceled before every phase completed
+	 * @throws CoreException
+	 *             the first failure of a phase
+	 */
+	public boolean run(IProgressMonitor monitor, String taskName) throws CoreException {
+		int totalWeight = 0;
+		for (Node node : nodes.values()) {
+			totalWeight += node.weight;
+		}
+		SubMonitor progress = SubMonitor.convert(monitor, taskName, totalWeight * TICKS_PER_WEIGHT);
+
+		final LinkedBlockingQueue<Node> completions = new LinkedBlockingQueue<Node>();
+		final List<CoreException> failures = new ArrayList<CoreException>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(THREADS, nodes.size())),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "Anaconda Install Phase " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		int running = 0;
+		int remaining = nodes.size();
+		try {
+			while (remaining > 0) {
+				if (!aborted && !monitor.isCanceled()) {
+					for (final Node node : nodes.values()) {
+						if (!node.started && isReady(node)) {
+							node.started = true;
+							node.monitor = new PhaseMonitor(monitor);
+							running++;
+							executor.execute(new Runnable() {
+								@Override
+								public void run() {
+									try {
+										node.phase.run(node.monitor);
+									} catch (CoreException e) {
+										fail(failures, e);
+									} catch (RuntimeException e) {
+										fail(failures, new CoreException(new Status(IStatus.ERROR,
+												Activator.PLUGIN_ID, "Install phase " + node.name + " failed", e)));
+									} finally {
+										completions.add(node);
+									}
+								}
+							});
+						}
+					}
+				} else {
+					aborted = true;
+				}
+				if (running == 0) {
+					// nothing running and nothing can start
+					break;
+				}
+
+				Node completed;
+				try {
+					completed = completions.poll(UPDATE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					aborted = true;
+					completed = null;
+				}
+				while (completed != null) {
+					running--;
+					remaining--;
+					synchronized (failures) {
+						completed.completed = failures.isEmpty() && !aborted;
+					}
+					completed.monitor.done();
+					completed = completions.poll();
+				}
+				report(progress);
+			}
+		} finally {
+			executor.shutdown();
+		}
+
+		synchronized (failures) {
+			if (!failures.isEmpty()) {
+				throw failures.get(0);
+			}
+		}
+		return remaining == 0 && !aborted;
+	}
+
+	private boolean isReady(Node node) {
+		for (String dependency : node.dependsOn) {
+			if (!nodes.get(dependency).completed) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void fail(List<CoreException> failures, CoreException e) {
+		synchronized (failures) {
+			failures.add(e);
+		}
+		aborted = true;
+	}
+
+	/**
+	 * Pass the progress of the phases on to the caller's monitor.
+	 */
+	private void report(SubMonitor progress) {
+		for (Node node : nodes.values()) {
+			if (node.monitor == null) {
+				continue;
+			}
+			int ticks = (int) (node.monitor.getFraction() * node.weight * TICKS_PER_WEIGHT);
+			if (ticks > node.reported) {
+				progress.worked(ticks - node.reported);
+				node.reported = ticks;
+			}
+			String subTask = node.monitor.takeSubTask();
+			if (subTask != null) {
+				progress.subTask(subTask);
+			}
+		}
+	}
+}
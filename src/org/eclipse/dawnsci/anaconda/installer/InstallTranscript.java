@@ -0,0 +1,275 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Keeps what the installer processes print without holding all of it in memory.
+ * <p>
+ * Each process stream gets its own {@link Stream}, which scans the text for error and warning markers as it arrives
+ * and only keeps a fixed size tail for error reporting. The full transcript of all streams is appended to a log file
+ * in the install directory by a background writer. Text is handed to the writer through a fixed size buffer, and a
+ * stream that finds it full waits for the writer to catch up, so a slow disk slows the reading of the process output
+ * rather than filling the heap. The install directory is normally created by the first installer process, so output
+ * that arrives before it exists is held back (up to {@link #MAX_PENDING_CHARS}) and written once it does.
+ */
+final class InstallTranscript {
+
+	/**
+	 * Name of the log file written to the install directory
+	 */
+	static final String LOG_FILE_NAME = "anaconda_wizard_install.log";
+
+	static final String ERROR_MARKER = "ERROR: ";
+	static final String WARNING_MARKER = "WARNING: ";
+
+	/**
+	 * Number of chars of each stream kept for error reporting
+	 */
+	private static final int TAIL_CHARS = 8 * 1024;
+
+	/**
+	 * Maximum number of chars following an error marker kept as the error message
+	 */
+	private static final int MAX_ERROR_CHARS = 4 * 1024;
+
+	/**
+	 * Maximum number of chars held back while the install directory does not exist yet
+	 */
+	private static final int MAX_PENDING_CHARS = 64 * 1024;
+
+	/**
+	 * Number of chars handed to the writer that it has not written yet, before streams wait for it
+	 */
+	private static final int QUEUE_CHARS = 64 * 1024;
+
+	/**
+	 * Number of chars the writer takes from the queue at a time
+	 */
+	private static final int WRITE_CHARS = 8 * 1024;
+
+	/**
+	 * How long {@link #close()} waits for the log to be written out
+	 */
+	private static final long CLOSE_TIMEOUT_SECONDS = 10;
+
+	/**
+	 * Text of one process stream.
+	 */
+	final class Stream implements ProcessSupervisor.StreamListener {
+		private final TailBuffer tail = new TailBuffer(TAIL_CHARS);
+		private final MarkerMatcher errorMatcher = new MarkerMatcher(ERROR_MARKER);
+		private final MarkerMatcher warningMatcher = new MarkerMatcher(WARNING_MARKER);
+		private StringBuilder error;
+		private int warnings;
+
+		@Override
+		public void output(char[] chars, int offset, int length) {
+			tail.append(chars, offset, length);
+			append(chars, offset, length);
+
+			int end = offset + length;
+			for (int i = offset; i < end; i++) {
+				char c = chars[i];
+				if (error != null) {
+					// keep everything after the first error, as the installers explain the error over several lines
+					if (error.length() < MAX_ERROR_CHARS) {
+						error.append(c);
+					}
+				} else if (errorMatcher.next(c)) {
+					error = new StringBuilder();
+				}
+				if (warningMatcher.next(c)) {
+					warnings++;
+				}
+			}
+		}
+
+		/**
+		 * @return the text following the first error marker, or <code>null</code> if no error was reported
+		 */
+		String getError() {
+			return error == null ? null : error.toString();
+		}
+
+		/**
+		 * @return number of warning markers seen
+		 */
+		int getWarningCount() {
+			return warnings;
+		}
+
+		/**
+		 * @return the last output of the stream
+		 */
+		String getTail() {
+			return tail.toString();
+		}
+
+		/**
+		 * @return <code>true</code> if {@link #getTail()} does not hold all the output of the stream
+		 */
+		boolean isTruncated() {
+			return tail.isTruncated();
+		}
+	}
+
+	private final File logFile;
+	private final Thread writer;
+
+	/** Chars waiting to be written, a ring buffer guarded by itself */
+	private final char[] queue = new char[QUEUE_CHARS];
+	private int queueStart;
+	private int queueLength;
+	private boolean closed;
+
+	/** Only accessed on the writer thread */
+	private Writer out;
+	private StringBuilder pending = new StringBuilder();
+	private boolean failed;
+
+	/**
+	 * @param logFile
+	 *            file the full transcript is appended to
+	 */
+	InstallTranscript(File logFile) {
+		this.logFile = logFile;
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeQueue();
+			}
+		}, "Anaconda Installer Log Writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * @return a new stream whose output is added to this transcript
+	 */
+	Stream openStream() {
+		return new Stream();
+	}
+
+	/**
+	 * Add text that does not come from a process stream, such as the commands being run.
+	 */
+	void log(String text) {
+		append(text.toCharArray(), 0, text.length());
+	}
+
+	File getLogFile() {
+		return logFile;
+	}
+
+	/**
+	 * Write out everything logged so far and close the log file.
+	 */
+	void close() {
+		synchronized (queue) {
+			closed = true;
+			queue.notifyAll();
+		}
+		try {
+			writer.join(CLOSE_TIMEOUT_SECONDS * 1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Hand text to the writer, waiting while the queue is full. Text added once the transcript is closed, or while
+	 * the thread is interrupted, is left out of the log.
+	 */
+	private void append(char[] chars, int offset, int length) {
+		synchronized (queue) {
+			while (length > 0) {
+				while (queueLength == queue.length && !closed) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+				int end = (queueStart + queueLength) % queue.length;
+				int n = Math.min(length, Math.min(queue.length - queueLength, queue.length - end));
+				System.arraycopy(chars, offset, queue, end, n);
+				queueLength += n;
+				offset += n;
+				length -= n;
+				queue.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Runs on the writer thread until the transcript is closed and everything queued is written.
+	 */
+	private void writeQueue() {
+		char[] chars = new char[WRITE_CHARS];
+		while (true) {
+			int n;
+			synchronized (queue) {
+				while (queueLength == 0 && !closed) {
+					try {
+						queue.wait();
+					} catch (InterruptedException e) {
+						// Only close ends the writer
+					}
+				}
+				if (queueLength == 0) {
+					break;
+				}
+				n = Math.min(chars.length, Math.min(queueLength, queue.length - queueStart));
+				System.arraycopy(queue, queueStart, chars, 0, n);
+				queueStart = (queueStart + n) % queue.length;
+				queueLength -= n;
+				queue.notifyAll();
+			}
+			write(chars, n);
+		}
+		if (out != null) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore close error
+			}
+			out = null;
+		}
+		pending = null;
+	}
+
+	private void write(char[] chars, int length) {
+		if (failed) {
+			return;
+		}
+		try {
+			if (out == null) {
+				File dir = logFile.getParentFile();
+				if (dir == null || !dir.isDirectory()) {
+					if (pending.length() + length <= MAX_PENDING_CHARS) {
+						pending.append(chars, 0, length);
+					}
+					return;
+				}
+				out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true),
+						Charset.forName("UTF-8")));
+				out.write(pending.toString());
+				pending = null;
+			}
+			out.write(chars, 0, length);
+		} catch (IOException e) {
+			// The log is only a convenience, carry on with the install without it
+			failed = true;
+		}
+	}
+}
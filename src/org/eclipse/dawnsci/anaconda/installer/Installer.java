@@ -1,35 +1,211 @@
 
 package org.eclipse.dawnsci.anaconda.installer;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.PrintStream;
-import java.net.URL;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.core.runtime.CoreException;
-import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
 import org.eclipse.dawnsci.anaconda.Activator;
 import org.python.pydev.runners.SimpleRunner;
-import org.python.pydev.shared_core.io.ThreadStreamReader;
-import org.python.pydev.shared_core.string.FastStringBuffer;
 import org.python.pydev.shared_core.utils.PlatformUtils;
 
+/**
+ * Installs Anaconda by running the Miniconda installer shipped in the platform fragment and then installing the
+ * packages of a {@link PackageProfile} with conda, by default the full anaconda metapackage.
+ * <p>
+ * If the fragment ships a prebuilt environment archive instead of an installer script, or an archive is given
+ * explicitly, the archive is unpacked by an {@link ArchiveInstaller} and conda is not run at all.
+ * <p>
+ * The install is run as an {@link InstallPlan} of phases, so that phases which do not depend on each other, such as
+ * the Miniconda installer and the prefetch of packages, run at the same time.
+ * <p>
+ * Progress is recorded in an {@link InstallJournal} in the install directory, so an install that was canceled or
+ * failed can be run again to the same location and continue from the phase that did not complete.
+ * <p>
+ * An install holds an {@link InstallLock} on its location. An install that finds another running to the same location,
+ * e.g. from another Eclipse sharing the home directory, follows its log until it is done and then uses what it
+ * installed, or resumes it if it did not complete.
+ * <p>
+ * After conda has solved for and installed the packages of a profile once, the exact package list it installed is
+ * kept in the {@link ExplicitSpecCache}, and later installs of the same payload and profile install that list without
+ * solving. Since conda does not check an explicit list, the installed packages are checked with
+ * {@link DependencyClosure} to have all their dependencies, and solved for again if they do not.
+ */
 public final class Installer implements IInstaller {
 	/**
 	 * For a successful installation, how many characters come on stdout. Nothing goes wrong if too low or too high,
-	 * just makes progress bar more accurate (and allocations slightly more efficient)
+	 * just makes progress bar more accurate
 	 */
 	private static final int APPROX_NUM_OF_CHARS_ON_STDOUT_MINI = 550;
-	private static final int APPROX_NUM_OF_CHARS_ON_STDOUT_ANA = 14600;
+
+	/**
+	 * Phases of the install, see {@link InstallPlan}
+	 */
+	private static final String PAYLOAD_PHASE = "payload";
+	private static final String PREFIX_PHASE = "prefix";
+	private static final String FETCH_PHASE = "fetch";
+	private static final String LINK_PHASE = "link";
+	private static final String COMPILE_PHASE = "compile";
+	private static final String VERIFY_PHASE = "verify";
+	private static final String REGISTER_PHASE = "register";
+
+	/**
+	 * Share of the overall progress given to each phase of the install. The Miniconda phase is short and reports
+	 * progress by counting characters, the prefetch and the compile count packages, the conda phase reports real
+	 * download and link progress.
+	 */
+	private static final int PAYLOAD_WEIGHT = 1;
+	private static final int MINI_INSTALL_WEIGHT = 5;
+	private static final int FETCH_WEIGHT = 10;
+	private static final int ANA_INSTALL_WEIGHT = 79;
+	private static final int COMPILE_WEIGHT = 5;
+
+	/**
+	 * How often the lock of an install location held by another install is tried again
+	 */
+	private static final long LOCK_POLL_INTERVAL_MS = 1000;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Launches processes for real
+	 */
+	private static final ProcessLauncher SIMPLE_RUNNER_LAUNCHER = new ProcessLauncher() {
+		@Override
+		public Process launch(String[] cmdarray, String[] envp, File workingDir) throws IOException {
+			return SimpleRunner.createProcess(cmdarray, envp, workingDir);
+		}
+	};
+
+	private final File environmentArchive;
+
+	/**
+	 * Directory conda keeps downloaded packages in, <code>null</code> for conda's default
+	 */
+	private String packageCacheDir;
+
+	private InstallMetrics metrics;
+
+	private ProcessLauncher processLauncher = SIMPLE_RUNNER_LAUNCHER;
+
+	/**
+	 * Channel to prefetch packages from instead of the URLs in the package list, <code>null</code> for those URLs
+	 */
+	private String channelMirror;
+
+	private boolean precompile = true;
+
+	private boolean rollbackOnCancel;
+
+	private PackageProfile packageProfile = PackageProfile.FULL;
+
+	/**
+	 * Create an installer for the payload shipped in the platform fragment.
+	 */
+	public Installer() {
+		this(null);
+	}
+
+	/**
+	 * Create an installer for a prebuilt environment archive.
+	 * 
+	 * @param environmentArchive
+	 *            local archive to unpack, or <code>null</code> to use the payload shipped in the platform fragment
+	 */
+	public Installer(File environmentArchive) {
+		this.environmentArchive = environmentArchive;
+	}
+
+	/**
+	 * Set the directory conda downloads packages to. Installs that share a package cache only download each package
+	 * once.
+	 * 
+	 * @param packageCacheDir
+	 *            package cache directory, or <code>null</code> to use a cache inside each installation
+	 */
+	public void setPackageCacheDir(String packageCacheDir) {
+		this.packageCacheDir = packageCacheDir;
+	}
+
+	/**
+	 * Set where the timing and counts of the install are recorded. They are also written to
+	 * {@link InstallMetrics#FILE_NAME} in the install directory.
+	 * 
+	 * @param metrics
+	 *            metrics to record to, shared with other recorders such as the console, or <code>null</code> to have
+	 *            the installer create its own
+	 */
+	public void setMetrics(InstallMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Set what launches the installer and conda processes, e.g. a {@link TranscriptLauncher} to replay a recorded
+	 * install.
+	 * 
+	 * @param processLauncher
+	 *            launcher to use, or <code>null</code> to launch the processes for real
+	 */
+	public void setProcessLauncher(ProcessLauncher processLauncher) {
+		this.processLauncher = processLauncher != null ? processLauncher : SIMPLE_RUNNER_LAUNCHER;
+	}
+
+	/**
+	 * Set a mirror of the channel the anaconda packages come from, to prefetch packages from. Packages are
+	 * prefetched when there is a package list of an earlier install, see {@link PackagePrefetcher}.
+	 * 
+	 * @param channelMirror
+	 *            URL of the mirror, e.g. <code>file:/srv/conda/free</code>, or <code>null</code> to fetch from the
+	 *            URLs in the package list
+	 */
+	public void setChannelMirror(String channelMirror) {
+		this.channelMirror = channelMirror;
+	}
+
+	/**
+	 * Set whether the site-packages of the installation are compiled to bytecode once it is installed, see
+	 * {@link BytecodeCompiler}. This makes the install take longer, and the first use of the installation quicker.
+	 * 
+	 * @param precompile
+	 *            <code>true</code> (the default) to compile
+	 */
+	public void setPrecompile(boolean precompile) {
+		this.precompile = precompile;
+	}
+
+	/**
+	 * Set whether a canceled install removes what it installed, instead of leaving it to be resumed. Only an install
+	 * directory the install created itself is removed.
+	 * 
+	 * @param rollbackOnCancel
+	 *            <code>true</code> to remove, the default is to leave it
+	 */
+	public void setRollbackOnCancel(boolean rollbackOnCancel) {
+		this.rollbackOnCancel = rollbackOnCancel;
+	}
+
+	/**
+	 * Set the packages conda installs on top of Miniconda.
+	 * 
+	 * @param packageProfile
+	 *            profile to install, or <code>null</code> for the full anaconda metapackage
+	 */
+	public void setPackageProfile(PackageProfile packageProfile) {
+		this.packageProfile = packageProfile != null ? packageProfile : PackageProfile.FULL;
+	}
 
 	@Override
 	public void runManualInstall() throws CoreException {
@@ -47,197 +223,753 @@ public final class Installer implements IInstaller {
 	public void runInstall(String installPath, final IProgressMonitor monitor,
 			final InstallOutputHandler feedbackHandler, final IInstallCompleteHandler completeHandler)
 			throws CoreException {
-		monitor.beginTask("Installing", APPROX_NUM_OF_CHARS_ON_STDOUT_MINI + APPROX_NUM_OF_CHARS_ON_STDOUT_ANA);
+		if (metrics == null) {
+			metrics = new InstallMetrics();
+		}
+		File installDir = new File(installPath);
+		// Only called once, the console is cleared by it and the log of an install waited for must stay
 		feedbackHandler.starting();
+		InstallOutputHandler handler = new StartedOutputHandler(feedbackHandler);
+		// The wait for the lock has no progress to show, the install gets all of the monitor
+		SubMonitor progress = SubMonitor.convert(monitor, 1);
+		AcquiredLock lock = acquireLock(installDir, progress.newChild(0), handler);
+		try {
+			if (lock.waited && isInstalled(installDir)) {
+				handler.output("\nReusing the installation made by the other install\n");
+				completeHandler.setInstallPath(getInstalledExe(installPath));
+				progress.done();
+				return;
+			}
+			runLockedInstall(installPath, progress.newChild(1), handler, completeHandler);
+		} finally {
+			lock.lock.release();
+		}
+	}
 
-		Process miniInstallProcess = launchMiniInstallProcess(installPath, feedbackHandler);
+	/**
+	 * Passes output on to a handler that has been told the install is starting, so that installers run as part of
+	 * this one do not tell it again.
+	 */
+	private static final class StartedOutputHandler implements InstallOutputChunkHandler {
+		private final InstallOutputHandler handler;
 
-		// Process StdErr
-		ThreadStreamReader miniInstallErr = new ThreadStreamReader(miniInstallProcess.getErrorStream(), false);
+		StartedOutputHandler(InstallOutputHandler handler) {
+			this.handler = handler;
+		}
 
-		// Process StdOut
-		final FastStringBuffer miniStdoutContents = new FastStringBuffer(APPROX_NUM_OF_CHARS_ON_STDOUT_MINI);
-		Thread miniInstallStd = createStdoutThread(monitor, feedbackHandler, miniInstallProcess, miniStdoutContents);
-		miniInstallStd.start();
+		@Override
+		public void starting() {
+			// already started
+		}
 
-		// Process StdIn
-		Thread miniInstallStdin = createStdinThread(miniInstallProcess, installPath);
-		miniInstallStdin.start();
+		@Override
+		public void output(String string) {
+			handler.output(string);
+		}
 
-		waitUntilProcessDone(monitor, miniInstallProcess, miniInstallStd, miniInstallStdin, miniInstallErr);
+		@Override
+		public void output(char[] chars, int offset, int length) {
+			OutputChunks.output(handler, chars, offset, length);
+		}
+	}
 
-		outputErrors(miniInstallErr, feedbackHandler);
-		
-		// Get the executable, will set as a last step
-		String installedExe;
-		
-		if (PlatformUtils.isWindowsPlatform()
-				|| (miniInstallProcess.exitValue() == 0 )) {
-			String exe = installPath;
-			if (PlatformUtils.isWindowsPlatform()) {
-				if (!exe.endsWith("\\")) {
-					exe = exe + "\\";
+	/**
+	 * The lock of an install location and whether another install had to be waited for to get it.
+	 */
+	private static final class AcquiredLock {
+		final InstallLock lock;
+		final boolean waited;
+
+		AcquiredLock(InstallLock lock, boolean waited) {
+			this.lock = lock;
+			this.waited = waited;
+		}
+	}
+
+	/**
+	 * Lock the install location. If another install, e.g. by another Eclipse sharing the home directory, holds the
+	 * lock, follow its progress in its journal and log until it releases it.
+	 */
+	private AcquiredLock acquireLock(File installDir, IProgressMonitor monitor, InstallOutputHandler feedbackHandler)
+			throws CoreException {
+		InstallLock lock = tryAcquireLock(installDir);
+		if (lock != null) {
+			return new AcquiredLock(lock, false);
+		}
+
+		String owner = InstallLock.getOwner(installDir);
+		feedbackHandler.output("Another install to " + installDir + " is in progress"
+				+ (owner != null ? " (" + owner + ")" : "") + ", waiting for it to finish\n\n");
+		monitor.beginTask("Waiting for another install", IProgressMonitor.UNKNOWN);
+		InstallMetrics.Span waitSpan = metrics.start("wait");
+		File log = new File(installDir, InstallTranscript.LOG_FILE_NAME);
+		long logOffset = log.length();
+		String installerName = environmentArchive == null ? getInstallerLocation().lastSegment() : null;
+		try {
+			while (true) {
+				if (monitor.isCanceled()) {
+					throw createCanceledException();
 				}
-				exe = exe + "python.exe";
-			} else {
-				if (!exe.endsWith("/")) {
-					exe = exe + "/";
+				try {
+					Thread.sleep(LOCK_POLL_INTERVAL_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw createCanceledException();
+				}
+				logOffset = followLog(log, logOffset, feedbackHandler);
+				if (installerName != null) {
+					monitor.subTask(describeProgress(new InstallJournal(installDir, installerName)));
+				}
+				lock = tryAcquireLock(installDir);
+				if (lock != null) {
+					followLog(log, logOffset, feedbackHandler);
+					return new AcquiredLock(lock, true);
 				}
-				exe = exe + "bin/python";
-			}
-			if (new File(exe).exists()) {
-				installedExe = exe;
-			} else {
-				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
-						"Installation failed. Expected to find python here: '" + exe + "' but it was missing.");
-				throw new CoreException(status);
 			}
-		} else if (monitor.isCanceled()) {
-			Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
-					"Installation canceled. You may need to manually clean up partial install. Please review output.");
-			throw new CoreException(status);
-		} else {
-			String string = miniStdoutContents.toString();
-			int errorIndex = string.indexOf("ERROR: ");
-			if (errorIndex < 0) {
-				string = "Unexpected/unknown error";
-			} else {
-				string = string.substring("ERROR: ".length() + errorIndex);
+		} finally {
+			waitSpan.end();
+		}
+	}
+
+	/**
+	 * Pass on what another install has added to its log since it was last looked at.
+	 * 
+	 * @return the offset to look from next time
+	 */
+	private static long followLog(File log, long offset, InstallOutputHandler feedbackHandler) {
+		if (log.length() <= offset) {
+			return offset;
+		}
+		try {
+			RandomAccessFile in = new RandomAccessFile(log, "r");
+			try {
+				byte[] bytes = new byte[(int) Math.min(in.length() - offset, 1024 * 1024)];
+				in.seek(offset);
+				in.readFully(bytes);
+				feedbackHandler.output(new String(bytes, UTF8));
+				return offset + bytes.length;
+			} finally {
+				in.close();
 			}
-			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, string);
+		} catch (IOException e) {
+			// the log is only followed for information
+			return offset;
+		}
+	}
+
+	private static InstallLock tryAcquireLock(File installDir) throws CoreException {
+		try {
+			return InstallLock.tryAcquire(installDir);
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to lock the install location "
+					+ installDir, e);
 			throw new CoreException(status);
 		}
-		// TODO: maybe refactor to allow more code reuse from above
-		
-		// Pull in anaconda packages using conda command
-		Process anaInstallProcess = launchAnaInstallProcess(installPath, feedbackHandler);
-		
-		// Process StdErr 
-		ThreadStreamReader anaInstallErr = new ThreadStreamReader(anaInstallProcess.getErrorStream(), false);
+	}
 
-		// Process StdOut
-		final FastStringBuffer stdoutcontentsA = new FastStringBuffer(APPROX_NUM_OF_CHARS_ON_STDOUT_ANA);
-		Thread anaInstallStd = createStdoutThread(monitor, feedbackHandler, anaInstallProcess, stdoutcontentsA);
-		anaInstallStd.start();
+	private String describeProgress(InstallJournal journal) {
+		if (journal.isComplete(packageProfile.getJournalPhase())) {
+			return "Waiting for another install, the packages are installed";
+		}
+		int linked = journal.getLinkedPackages().size();
+		if (linked > 0) {
+			return "Waiting for another install, " + linked + " packages linked";
+		}
+		if (journal.isComplete(InstallJournal.MINICONDA_PHASE)) {
+			return "Waiting for another install, Miniconda is installed";
+		}
+		return "Waiting for another install";
+	}
 
-		// Process StdIn
-		Thread anaInstallStdin = createStdinThread(anaInstallProcess, installPath);
-		anaInstallStdin.start();
+	/**
+	 * @return <code>true</code> if the journal of the install location shows a complete install of this payload
+	 */
+	private boolean isInstalled(File installDir) throws CoreException {
+		if (environmentArchive != null || !new File(getInstalledExe(installDir.getPath())).exists()) {
+			return false;
+		}
+		InstallJournal journal = new InstallJournal(installDir, getInstallerLocation().lastSegment());
+		return journal.isComplete(packageProfile.getJournalPhase());
+	}
 
-		waitUntilProcessDone(monitor, anaInstallProcess, anaInstallStd, anaInstallStdin, anaInstallErr);
-		
-		outputErrors(anaInstallErr, feedbackHandler);
+	private void runLockedInstall(String installPath, final IProgressMonitor monitor,
+			final InstallOutputHandler feedbackHandler, final IInstallCompleteHandler completeHandler)
+			throws CoreException {
+		File archive = environmentArchive;
+		if (archive == null) {
+			InstallMetrics.Span payloadSpan = metrics.start("payload");
+			IPath payload = getInstallerLocation();
+			payloadSpan.end();
+			if (ArchiveInstaller.isArchive(payload.lastSegment())) {
+				archive = payload.toFile();
+			}
+		}
+		if (archive != null) {
+			InstallMetrics.Span archiveSpan = metrics.start("archive");
+			try {
+				new ArchiveInstaller(archive).runInstall(installPath, monitor, feedbackHandler, completeHandler);
+			} finally {
+				archiveSpan.end();
+				writeMetrics(installPath);
+			}
+			return;
+		}
 
-		// TODO: Check to see if certain files are there/Error handling?
-		// TODO: Output from anaconda install currently suppressed as it kills the monitor; maybe add more feedback
-		
-		// Finally set the python executable
-		completeHandler.setInstallPath(installedExe);
+		// Only an install directory created by this install is removed when it is canceled
+		boolean rollback = rollbackOnCancel && !new File(installPath).exists();
+		InstallRun run = new InstallRun(installPath, feedbackHandler, completeHandler);
+		try {
+			try {
+				if (!run.createPlan().run(monitor, "Installing")) {
+					throw createCanceledException();
+				}
+			} finally {
+				run.close();
+				writeMetrics(installPath);
+			}
+		} catch (CoreException e) {
+			if (rollback && monitor.isCanceled()) {
+				throw rollBack(installPath, feedbackHandler);
+			}
+			throw e;
+		}
 
 		monitor.done();
 
 	}
-	
-	private void outputErrors(final ThreadStreamReader err, final InstallOutputHandler feedbackHandler){
-		String errcontents = err.getContents();
-		if (errcontents.length() > 0) {
-			feedbackHandler.output("\nError output:\n");
-			feedbackHandler.output(errcontents);
+
+	/**
+	 * The state of one install and the phases it is made of. The Miniconda installer and the prefetch of the
+	 * packages conda will need run at the same time, conda links once both are done.
+	 */
+	private final class InstallRun {
+		private final String installPath;
+		private final InstallOutputHandler feedbackHandler;
+		private final IInstallCompleteHandler completeHandler;
+		private final String installedExe;
+
+		/**
+		 * Full output goes to a log in the install directory, only the tail of each stream is kept in memory
+		 */
+		private final InstallTranscript transcript;
+
+		private volatile String installerName;
+		private volatile InstallJournal journal;
+		private volatile PackagePrefetcher prefetcher;
+
+		InstallRun(String installPath, InstallOutputHandler feedbackHandler, IInstallCompleteHandler completeHandler) {
+			this.installPath = installPath;
+			this.feedbackHandler = feedbackHandler;
+			this.completeHandler = completeHandler;
+			this.installedExe = getInstalledExe(installPath);
+			this.transcript = new InstallTranscript(new File(installPath, InstallTranscript.LOG_FILE_NAME));
 		}
-	}
 
-	private void waitUntilProcessDone(final IProgressMonitor monitor, final Process process, Thread std, Thread stdin,
-			ThreadStreamReader err) {
-		Thread thread = new Thread("Wait For Anaconda Installer To Finish") {
-			@Override
-			public void run() {
-				boolean interrupted = true;
-				while (interrupted) {
-					if (monitor.isCanceled()) {
-						process.destroy();
-					}
+		InstallPlan createPlan() {
+			InstallPlan plan = new InstallPlan();
+			plan.add(PAYLOAD_PHASE, PAYLOAD_WEIGHT, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					runPayload();
+				}
+			});
+			plan.add(PREFIX_PHASE, MINI_INSTALL_WEIGHT, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					runPrefix(monitor);
+				}
+			}, PAYLOAD_PHASE);
+			plan.add(FETCH_PHASE, FETCH_WEIGHT, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					runFetch(monitor);
+				}
+			}, PAYLOAD_PHASE);
+			plan.add(LINK_PHASE, ANA_INSTALL_WEIGHT, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					runLink(monitor);
+				}
+			}, PREFIX_PHASE, FETCH_PHASE);
+			plan.add(COMPILE_PHASE, precompile ? COMPILE_WEIGHT : 0, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					runCompile(monitor);
+				}
+			}, LINK_PHASE);
+			plan.add(VERIFY_PHASE, 0, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					checkInstalledExe();
+				}
+			}, COMPILE_PHASE);
+			plan.add(REGISTER_PHASE, 0, new InstallPlan.Phase() {
+				@Override
+				public void run(IProgressMonitor monitor) throws CoreException {
+					// Finally set the python executable
+					completeHandler.setInstallPath(installedExe);
+				}
+			}, VERIFY_PHASE);
+			return plan;
+		}
+
+		/**
+		 * Resolve the installer payload and read the journal of an earlier attempt to install to the same place,
+		 * which lets completed phases be skipped.
+		 */
+		private void runPayload() throws CoreException {
+			installerName = getInstallerLocation().lastSegment();
+			journal = new InstallJournal(new File(installPath), installerName);
+		}
 
-					interrupted = false;
-					try {
-						process.waitFor(); // wait until the process completion.
-					} catch (InterruptedException e1) {
-						interrupted = true;
+		/**
+		 * Run the Miniconda installer to create the prefix conda installs into.
+		 */
+		private void runPrefix(IProgressMonitor monitor) throws CoreException {
+			if (journal.isComplete(InstallJournal.MINICONDA_PHASE) && new File(installedExe).exists()) {
+				feedbackHandler.output("Miniconda is already installed in " + installPath + ", resuming\n");
+				return;
+			}
+			clearPartialPrefix();
+			InstallMetrics.Span miniSpan = metrics.start(InstallJournal.MINICONDA_PHASE);
+			Process miniInstallProcess = launchMiniInstallProcess(installPath, feedbackHandler);
+			SubMonitor miniProgress = SubMonitor.convert(monitor, APPROX_NUM_OF_CHARS_ON_STDOUT_MINI);
+			InstallTranscript.Stream miniStdout = transcript.openStream();
+			final ProcessSupervisor.StreamListener console = createConsoleListener(miniProgress, feedbackHandler);
+			ProcessSupervisor.StreamListener miniListener = new ProcessSupervisor.StreamListener() {
+				private boolean started;
+
+				@Override
+				public void output(char[] chars, int offset, int length) {
+					// Miniconda creates the prefix itself, the journal can only be written once it has
+					if (!started && new File(installPath).isDirectory()) {
+						journal.start(InstallJournal.MINICONDA_PHASE);
+						started = true;
 					}
+					console.output(chars, offset, length);
+				}
+			};
+			int miniExitValue = runToCompletion(InstallJournal.MINICONDA_PHASE, miniInstallProcess, installPath,
+					miniProgress, miniListener, miniStdout, transcript, feedbackHandler);
+			miniProgress.done();
+			miniSpan.end();
+
+			if (PlatformUtils.isWindowsPlatform()
+					|| (miniExitValue == 0 )) {
+				checkInstalledExe();
+			} else if (monitor.isCanceled()) {
+				throw createCanceledException();
+			} else {
+				String string = miniStdout.getError();
+				if (string == null) {
+					string = "Unexpected/unknown error";
 				}
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, string);
+				throw new CoreException(status);
 			}
-		};
-		thread.start();
+			journal.complete(InstallJournal.MINICONDA_PHASE);
+		}
+
+		/**
+		 * Remove what an interrupted run of the Miniconda installer left, as it refuses to install into a directory
+		 * that exists. A prefix is only removed if its journal was written for the same payload and records that
+		 * Miniconda started but did not complete; any other directory that is not empty, such as a complete install
+		 * of another payload, is refused rather than removed. The journal read by the payload phase is kept, and
+		 * written again as Miniconda runs.
+		 */
+		private void clearPartialPrefix() throws CoreException {
+			File prefix = new File(installPath);
+			if (PlatformUtils.isWindowsPlatform() || !prefix.isDirectory()) {
+				return;
+			}
+			String[] children = prefix.list();
+			if (children != null && children.length == 0 && prefix.delete()) {
+				return;
+			}
+			if (!journal.isSameInstaller() || !journal.isStarted(InstallJournal.MINICONDA_PHASE)
+					|| journal.isComplete(InstallJournal.MINICONDA_PHASE)) {
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Can not install to " + installPath
+						+ ", it already exists and is not an interrupted install of " + installerName
+						+ ". Please choose another location or remove it.");
+				throw new CoreException(status);
+			}
+			feedbackHandler.output("Miniconda did not complete in " + installPath
+					+ " in an earlier attempt, removing what it installed\n");
+			if (!TreeDeleter.delete(prefix)) {
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to remove the incomplete "
+						+ "Miniconda installation in " + installPath + ", please remove it and install again");
+				throw new CoreException(status);
+			}
+		}
+
+		/**
+		 * Fetch the packages conda will need while Miniconda installs.
+		 */
+		private void runFetch(IProgressMonitor monitor) throws CoreException {
+			if (journal.isComplete(packageProfile.getJournalPhase())) {
+				return;
+			}
+			prefetcher = startPrefetch(installPath, feedbackHandler);
+			if (prefetcher != null && !prefetcher.await(monitor)) {
+				throw createCanceledException();
+			}
+		}
+
+		/**
+		 * Have conda install the packages of the profile into the prefix, and check they are closed under their
+		 * dependencies.
+		 */
+		private void runLink(IProgressMonitor monitor) throws CoreException {
+			if (journal.isComplete(packageProfile.getJournalPhase())) {
+				feedbackHandler.output("The packages of " + packageProfile.getLabel() + " are already installed\n");
+				return;
+			}
+			if (prefetcher != null) {
+				prefetcher.finish(getPackageCacheDir(installPath), feedbackHandler);
+			}
+
+			List<String> linked = journal.getLinkedPackages();
+			if (!linked.isEmpty()) {
+				feedbackHandler.output(linked.size() + " packages were linked by an earlier attempt, continuing\n");
+			}
+
+			// Pull in the packages of the profile using conda command, from the package list of an earlier install
+			// when there is one, so conda does not have to solve the dependencies again
+			String specName = packageProfile.getSpecName(installerName);
+			File spec = PlatformUtils.isWindowsPlatform() ? null : ExplicitSpecCache.getSpec(specName);
+			InstallMetrics.Span anaSpan = metrics.start(InstallJournal.ANACONDA_PHASE);
+			SubMonitor anaProgress = SubMonitor.convert(monitor, 1);
+			CondaJsonProgress condaProgress = new CondaJsonProgress(anaProgress.newChild(1), feedbackHandler,
+					metrics);
+			int anaExitValue = runCondaInstall(installPath, spec, condaProgress, anaProgress, transcript,
+					feedbackHandler);
+			if (spec != null && !monitor.isCanceled() && (!isCondaSuccess(anaExitValue, condaProgress, spec)
+					|| !DependencyClosure.findMissing(new File(installPath)).isEmpty())) {
+				// the packages listed may no longer be available or, the list being stale, not be all those
+				// needed, solve as if there was no list
+				feedbackHandler.output("\nInstalling the packages of an earlier install failed, "
+						+ "resolving the packages again\n");
+				ExplicitSpecCache.remove(specName);
+				spec = null;
+				anaProgress.setWorkRemaining(1);
+				condaProgress = new CondaJsonProgress(anaProgress.newChild(1), feedbackHandler, metrics);
+				anaExitValue = runCondaInstall(installPath, null, condaProgress, anaProgress, transcript,
+						feedbackHandler);
+			}
+			anaProgress.done();
+			anaSpan.end();
+			// Whatever happened, remember how far conda got
+			journal.recordLinkedPackages();
 
-		while (thread.isAlive()) {
 			if (monitor.isCanceled()) {
-				thread.interrupt();
+				throw createCanceledException();
+			} else if (!isCondaSuccess(anaExitValue, condaProgress, spec)) {
+				String string = condaProgress.getResultMessage();
+				if (string == null) {
+					string = "Installing packages failed with exit code " + anaExitValue;
+				}
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, string
+						+ "\nRun the install to the same location again to continue from where it stopped.");
+				throw new CoreException(status);
+			}
+			List<String> missing = DependencyClosure.findMissing(new File(installPath));
+			if (!missing.isEmpty()) {
+				StringBuilder message = new StringBuilder("The installed packages are missing dependencies:");
+				for (String dependency : missing) {
+					message.append("\n  ").append(dependency);
+				}
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, message.toString());
+				throw new CoreException(status);
+			}
+			journal.complete(packageProfile.getJournalPhase());
+
+			if (spec == null && !PlatformUtils.isWindowsPlatform()) {
+				exportSpec(installPath, specName, monitor, transcript, feedbackHandler);
+			}
+		}
+
+		/**
+		 * Compile the site-packages, so the first use of the installation does not have to.
+		 */
+		private void runCompile(IProgressMonitor monitor) throws CoreException {
+			if (!precompile || journal.isComplete(InstallJournal.COMPILE_PHASE)) {
+				return;
+			}
+			feedbackHandler.output("Compiling packages to bytecode..\n");
+			InstallMetrics.Span compileSpan = metrics.start(InstallJournal.COMPILE_PHASE);
+			int failures = new BytecodeCompiler(installedExe, metrics).compile(new File(installPath), monitor);
+			compileSpan.end();
+			if (failures < 0) {
+				throw createCanceledException();
+			}
+			if (failures > 0) {
+				// Python compiles them on import instead
+				feedbackHandler.output(failures
+						+ " package(s) could not be compiled, they will be compiled when first used\n");
+			}
+			journal.complete(InstallJournal.COMPILE_PHASE);
+		}
+
+		private void checkInstalledExe() throws CoreException {
+			if (!new File(installedExe).exists()) {
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+						"Installation failed. Expected to find python here: '" + installedExe
+								+ "' but it was missing.");
+				throw new CoreException(status);
+			}
+		}
+
+		void close() {
+			if (prefetcher != null) {
+				prefetcher.cancel();
 			}
+			transcript.close();
+		}
+	}
+
+	/**
+	 * Write the metrics recorded so far to the install directory, if it was created.
+	 */
+	private void writeMetrics(String installPath) {
+		File installDir = new File(installPath);
+		if (installDir.isDirectory()) {
 			try {
-				thread.join(100);
-			} catch (InterruptedException e) {
-				// ignore and try again
+				metrics.write(new File(installDir, InstallMetrics.FILE_NAME));
+			} catch (IOException e) {
+				// Metrics are only informative, the install itself is unaffected
+			}
+		}
+	}
+
+	/**
+	 * @return the python executable the install will have
+	 */
+	private static String getInstalledExe(String installPath) {
+		String exe = installPath;
+		if (PlatformUtils.isWindowsPlatform()) {
+			if (!exe.endsWith("\\")) {
+				exe = exe + "\\";
+			}
+			exe = exe + "python.exe";
+		} else {
+			if (!exe.endsWith("/")) {
+				exe = exe + "/";
 			}
+			exe = exe + "bin/python";
 		}
+		return exe;
+	}
+
+	/**
+	 * Remove the install directory of a canceled install. The processes of the install have been killed by the time
+	 * the plan returns, so nothing writes to it any more.
+	 * 
+	 * @return the exception to report the cancellation with
+	 */
+	private CoreException rollBack(String installPath, InstallOutputHandler feedbackHandler) {
+		feedbackHandler.output("\nRemoving the partial installation in " + installPath + "\n");
+		InstallMetrics.Span rollbackSpan = metrics.start("rollback");
+		boolean deleted = TreeDeleter.delete(new File(installPath));
+		rollbackSpan.end();
+		String message = deleted ? "Installation canceled, the partial installation was removed."
+				: "Installation canceled, but the partial installation in " + installPath
+						+ " could not be removed completely. Please remove it.";
+		return new CoreException(new Status(IStatus.INFO, Activator.PLUGIN_ID, message));
+	}
 
-		// wait for all process readers/writers to complete
+	private static CoreException createCanceledException() {
+		Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+				"Installation canceled. Run the install to the same location again to resume it. Please review output.");
+		return new CoreException(status);
+	}
+
+	/**
+	 * Start prefetching the packages in the package list of an earlier install, if there is one.
+	 * 
+	 * @return the running prefetcher, or <code>null</code> if there is nothing to prefetch
+	 */
+	private PackagePrefetcher startPrefetch(String installPath, InstallOutputHandler feedbackHandler)
+			throws CoreException {
+		File spec = PlatformUtils.isWindowsPlatform() ? null : ExplicitSpecCache.getSpec(packageProfile
+				.getSpecName(getInstallerLocation().lastSegment()));
+		if (spec == null) {
+			return null;
+		}
+		// Miniconda will not install into an existing directory, so stage the packages elsewhere until it is done,
+		// in a directory of this install's own even when the cache is shared
+		String stagingName = Integer.toHexString(new File(installPath).getAbsolutePath().hashCode());
+		File sharedCacheDir = packageCacheDir != null ? new File(packageCacheDir) : null;
+		File stagingDir = sharedCacheDir != null ? new File(sharedCacheDir, ".prefetch." + stagingName) : Activator
+				.getStateLocation().append("prefetch").append(stagingName).toFile();
 		try {
-			std.join();
-			stdin.join();
-			err.join();
-		} catch (InterruptedException e) {
-			// ignored, treat like they completed
+			PackagePrefetcher prefetcher = new PackagePrefetcher(spec, stagingDir, sharedCacheDir, channelMirror,
+					metrics);
+			prefetcher.start();
+			feedbackHandler.output("Prefetching the packages of an earlier install\n");
+			return prefetcher;
+		} catch (IOException e) {
+			// conda fetches everything itself
+			return null;
 		}
+	}
 
+	/**
+	 * @return the package cache conda installs from
+	 */
+	private File getPackageCacheDir(String installPath) {
+		return packageCacheDir != null ? new File(packageCacheDir) : new File(installPath, "pkgs");
 	}
 
-	private Thread createStdoutThread(final IProgressMonitor monitor, final InstallOutputHandler handler,
-			Process process, final FastStringBuffer stdoutcontents) {
-		Thread std;
-		final InputStream is = process.getInputStream();
-		std = new Thread("Anaconda Installer Input Reader") {
-			@Override
-			public void run() {
-				try {
-					InputStreamReader in = new InputStreamReader(is);
-					int c;
+	/**
+	 * Run conda to install the packages of the profile.
+	 * 
+	 * @param spec
+	 *            explicit package list to install, or <code>null</code> to have conda solve for the packages of the
+	 *            profile
+	 * @return exit value of conda, what conda reported is in <code>condaProgress</code>
+	 */
+	private int runCondaInstall(String installPath, File spec, CondaJsonProgress condaProgress,
+			IProgressMonitor monitor, InstallTranscript transcript, InstallOutputHandler feedbackHandler)
+			throws CoreException {
+		Process anaInstallProcess = launchAnaInstallProcess(installPath, spec, feedbackHandler);
+		int exitValue = runToCompletion(InstallJournal.ANACONDA_PHASE, anaInstallProcess, installPath, monitor,
+				condaProgress, transcript.openStream(), transcript, feedbackHandler);
+		condaProgress.done();
+		return exitValue;
+	}
 
-					while ((c = in.read()) != -1) {
-						handler.output("" + (char) c);
-						stdoutcontents.append((char) c);
-						monitor.worked(1);
-					}
-				} catch (Exception e) {
-					// that's ok, process has completed, thread can close
-				}
+	private static boolean isCondaSuccess(int exitValue, CondaJsonProgress condaProgress, File spec) {
+		if (exitValue != 0) {
+			return false;
+		}
+		// conda does not report a result when installing an explicit package list, only an exit code
+		return condaProgress.hasResult() ? condaProgress.isSuccess() : spec != null;
+	}
+
+	/**
+	 * Save the explicit package list of a successful install, so later installs of the same payload and profile can
+	 * skip solving. Failing to save it only means the next install solves again.
+	 */
+	private void exportSpec(String installPath, String specName, IProgressMonitor monitor,
+			InstallTranscript transcript, InstallOutputHandler feedbackHandler) {
+		InstallMetrics.Span exportSpan = metrics.start("anaconda.export");
+		final StringBuilder spec = new StringBuilder();
+		try {
+			String condaPath = installPath + "/bin/conda";
+			Process process = launchProcess(new String[] { condaPath, "list", "--explicit", "--md5", "--prefix",
+					installPath }, feedbackHandler);
+			int exitValue = runToCompletion("anaconda.export", process, installPath, monitor,
+					new ProcessSupervisor.StreamListener() {
+						@Override
+						public void output(char[] chars, int offset, int length) {
+							spec.append(chars, offset, length);
+						}
+					}, transcript.openStream(), transcript, feedbackHandler);
+			if (exitValue == 0 && ExplicitSpecCache.store(specName, spec.toString())) {
+				feedbackHandler.output("Saved the package list, later installs will not need to resolve it\n");
+			}
+		} catch (CoreException e) {
+			// conda could not be launched, the install itself is complete
+		} finally {
+			exportSpan.end();
+		}
+	}
+
+	/**
+	 * Create a listener that passes stdout straight on to the handler and counts each character as one unit of work.
+	 */
+	private ProcessSupervisor.StreamListener createConsoleListener(final IProgressMonitor monitor,
+			final InstallOutputHandler feedbackHandler) {
+		return new ProcessSupervisor.StreamListener() {
+			@Override
+			public void output(char[] chars, int offset, int length) {
+				OutputChunks.output(feedbackHandler, chars, offset, length);
+				monitor.worked(length);
 			}
 		};
-		return std;
 	}
 
-	private Thread createStdinThread(final Process process, final String installPath) {
-		Thread stdin;
-		final OutputStream os = process.getOutputStream();
-		stdin = new Thread("Anaconda Installer Output Writer") {
+	/**
+	 * Hand the streams of a launched process to the {@link ProcessSupervisor} and wait for it to finish. Stdout is
+	 * passed to the given listener and to the transcript as it arrives, stderr is added to the transcript and the
+	 * last of it is output once the process has completed. The chars read from each stream are counted in the
+	 * metrics under the name of the phase.
+	 * 
+	 * @return exit value of the process
+	 */
+	private int runToCompletion(String phase, Process process, String installPath, IProgressMonitor monitor,
+			final ProcessSupervisor.StreamListener stdoutListener, final InstallTranscript.Stream stdoutTranscript,
+			InstallTranscript transcript, InstallOutputHandler feedbackHandler) {
+		final String stdoutCounter = phase + ".stdout.chars";
+		ProcessSupervisor.StreamListener stdout = new ProcessSupervisor.StreamListener() {
 			@Override
-			public void run() {
-				Path installLocPath = new Path(installPath);
-				File installLocFile = installLocPath.toFile();
-				if (installLocFile.exists() && installLocFile.isDirectory()) {
-					PrintStream printStream = new PrintStream(os);
-					printStream.println("yes");
-					printStream.close();
-				} else {
-					// Finished with stdin
-					try {
-						os.close();
-					} catch (IOException e) {
-						// Ignore close error
-					}
-				}
+			public void output(char[] chars, int offset, int length) {
+				metrics.count(stdoutCounter, length);
+				stdoutTranscript.output(chars, offset, length);
+				stdoutListener.output(chars, offset, length);
 			}
 		};
+		final String stderrCounter = phase + ".stderr.chars";
+		final InstallTranscript.Stream stderrTranscript = transcript.openStream();
+		ProcessSupervisor.StreamListener stderr = new ProcessSupervisor.StreamListener() {
+			@Override
+			public void output(char[] chars, int offset, int length) {
+				metrics.count(stderrCounter, length);
+				stderrTranscript.output(chars, offset, length);
+			}
+		};
+
+		ProcessSupervisor.Handle handle = ProcessSupervisor.getDefault().start(process, monitor, stdout, stderr,
+				getStdinContents(installPath));
+		int exitValue = handle.waitFor();
 
-		return stdin;
+		outputErrors(stderrTranscript, feedbackHandler);
+		int warnings = stdoutTranscript.getWarningCount() + stderrTranscript.getWarningCount();
+		if (warnings > 0) {
+			feedbackHandler.output("\n" + warnings + " warning(s) reported, see " + transcript.getLogFile() + "\n");
+		}
+		return exitValue;
+	}
+	
+	private void outputErrors(InstallTranscript.Stream err, final InstallOutputHandler feedbackHandler){
+		String errcontents = err.getTail();
+		if (errcontents.length() > 0) {
+			feedbackHandler.output("\nError output:\n");
+			if (err.isTruncated()) {
+				feedbackHandler.output("...\n");
+			}
+			feedbackHandler.output(errcontents);
+		}
+	}
+
+	/**
+	 * The installers ask for confirmation when installing into an existing directory, answer it on stdin.
+	 * 
+	 * @return what to write to stdin of the installer, or <code>null</code> for nothing
+	 */
+	private String getStdinContents(String installPath) {
+		File installLocFile = new Path(installPath).toFile();
+		if (installLocFile.exists() && installLocFile.isDirectory()) {
+			return "yes" + System.getProperty("line.separator");
+		}
+		return null;
+	}
+
+	/**
+	 * @return the environment to launch installer processes with, or <code>null</code> to inherit this one
+	 */
+	private String[] getEnvironment() {
+		if (packageCacheDir == null) {
+			return null;
+		}
+		Map<String, String> env = new HashMap<String, String>(System.getenv());
+		env.put("CONDA_PKGS_DIRS", packageCacheDir);
+		String[] envp = new String[env.size()];
+		int i = 0;
+		for (Map.Entry<String, String> entry : env.entrySet()) {
+			envp[i++] = entry.getKey() + "=" + entry.getValue();
+		}
+		return envp;
 	}
 
 	private Process launchProcess(String[] cmdarray, InstallOutputHandler handler) throws CoreException {
@@ -250,7 +982,7 @@ public final class Installer implements IInstaller {
 		handler.output("\n");
 
 		try {
-			Process process = SimpleRunner.createProcess(cmdarray, null, null);
+			Process process = processLauncher.launch(cmdarray, getEnvironment(), null);
 			return process;
 		} catch (IOException e) {
 			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to launch installer", e);
@@ -274,9 +1006,15 @@ public final class Installer implements IInstaller {
 		return launchProcess(cmdarray, handler);
 	}
 
-	private Process launchAnaInstallProcess(String installPath, InstallOutputHandler handler) throws CoreException {
+	private Process launchAnaInstallProcess(String installPath, File spec, InstallOutputHandler handler)
+			throws CoreException {
 		
-		handler.output("Fetching and installing anaconda packages..");
+		if (spec == null) {
+			handler.output("Fetching and installing the packages of " + packageProfile.getLabel() + "..\n");
+		} else {
+			handler.output("Fetching and installing the packages of " + packageProfile.getLabel()
+					+ " from an earlier install..\n");
+		}
 		
 		final String[] cmdarray;
 		if (PlatformUtils.isWindowsPlatform()) {
@@ -284,50 +1022,46 @@ public final class Installer implements IInstaller {
 			cmdarray = new String[] {};
 		} else {
 			String condaPath = installPath + "/bin/conda";
-			cmdarray = new String[] { condaPath, "install", "--yes", "--quiet", "anaconda"};
+			if (spec == null) {
+				List<String> command = new ArrayList<String>(Arrays.asList(condaPath, "install", "--yes", "--json"));
+				command.addAll(packageProfile.getPackages());
+				cmdarray = command.toArray(new String[command.size()]);
+			} else {
+				cmdarray = new String[] { condaPath, "install", "--yes", "--json", "--file", spec.getPath() };
+			}
 		}
 		
 		return launchProcess(cmdarray, handler);
 	}
 
 	/**
-	 * Get the installer location for the current platform.
+	 * Get the installer location for the current platform. The installer is extracted from the bundle and verified
+	 * once, then served from the plug-in's payload cache.
 	 * 
 	 * @return path to the installer, never returns <code>null</code>
 	 * @throws CoreException
 	 *             if installer could not be found
 	 */
 	public static IPath getInstallerLocation() throws CoreException {
-		IPath installer = null;
-		try {
-			URL bundleURL = Activator.getBundleURL(new Path("installer/anaconda_installer.txt"));
-			if (bundleURL != null) {
-				InputStream openStream = bundleURL.openStream();
-				BufferedReader bufferedInputStream = new BufferedReader(new InputStreamReader(openStream));
-				String filePath = bufferedInputStream.readLine();
-				bufferedInputStream.close();
-
-				URL installerUrl = Activator.getBundleURL(new Path("installer/" + filePath));
-				if (installerUrl != null) {
-					installer = new Path(FileLocator.toFileURL(installerUrl).getFile());
-				}
-			}
-		} catch (IOException e) {
-			Status status = new Status(
-					IStatus.ERROR,
-					Activator.PLUGIN_ID,
-					"Anaconda Installer not available locally. Please visit [].",
-					e);
-			throw new CoreException(status);
-		}
+		return InstallerPayloadCache.getInstallerLocation();
+	}
 
-		if (installer == null) {
-			Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
-					"Anaconda Installer not available. Please visit [].");
-			throw new CoreException(status);
+	/**
+	 * @return the location installs go to unless another is chosen, or an empty string if there is none
+	 */
+	public static String getDefaultInstallLocation() {
+		if (PlatformUtils.isWindowsPlatform()) {
+			// default installation path on Windows
+			return "C:\\Python27";
+		}
+		// install to home directory on non-Windows
+		try {
+			String home = System.getenv("HOME");
+			return home + File.separatorChar + "anacondaWizardInstall";
+		} catch (Exception e) {
+			// can't get home directory, default to empty directory
+			return "";
 		}
-
-		return installer;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,399 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+import java.util.regex.Pattern;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.FileLocator;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.dawnsci.anaconda.Activator;
+
+/**
+ * Content addressed cache of the installer payload shipped in the platform fragment.
+ * <p>
+ * The payload is named by <code>installer/anaconda_installer.txt</code>: the first line is the file name of the
+ * installer in the <code>installer/</code> folder, the second line its expected SHA-256. A descriptor without one is
+ * refused, so a payload is never run unverified. The first time a
+ * payload is needed its SHA-256 is computed once over a memory mapped view and checked against the expected value.
+ * A payload in an unpacked fragment is then used where it is. A payload in a fragment jar is copied out of it with a
+ * channel transfer into the plug-in state location, and the copy is stored under its checksum. The checksum is
+ * recorded together with the size and modification time of the file, so later installs in this or any other session
+ * only have to compare those to know it is intact. A file that no longer matches is hashed, and if need be extracted,
+ * again before any installer process is started.
+ * <p>
+ * Once a payload is verified, the copies of other payloads, left by earlier versions of the fragment, are deleted.
+ */
+final class InstallerPayloadCache {
+
+	private static final String DESCRIPTOR = "installer/anaconda_installer.txt";
+	private static final String CACHE_DIR = "payload";
+	private static final String INDEX_FILE = "index.properties";
+
+	/**
+	 * Prefix of the index keys of payloads used in place
+	 */
+	private static final String IN_PLACE_PREFIX = "inplace|";
+
+	/**
+	 * A SHA-256 in hex, as given by the descriptor and naming the cache directory of a payload
+	 */
+	private static final Pattern SHA_DIR = Pattern.compile("[0-9a-f]{64}");
+
+	/**
+	 * Size of each memory mapped region hashed, keeps the mapping within the address space of 32 bit VMs
+	 */
+	private static final long MAP_CHUNK_SIZE = 64 * 1024 * 1024;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	/**
+	 * Payload located so far in this session, <code>null</code> until the first call
+	 */
+	private static File cached;
+	private static long cachedSize;
+	private static long cachedModified;
+
+	private InstallerPayloadCache() {
+	}
+
+	/**
+	 * @return the verified local copy of the installer payload
+	 * @throws CoreException
+	 *             if the payload is not available or does not match its checksum
+	 */
+	static synchronized IPath getInstallerLocation() throws CoreException {
+		if (cached != null && cached.length() == cachedSize && cached.lastModified() == cachedModified) {
+			return new Path(cached.getAbsolutePath());
+		}
+		cached = null;
+
+		try {
+			URL descriptorUrl = Activator.getBundleURL(new Path(DESCRIPTOR));
+			if (descriptorUrl == null) {
+				throw notAvailable();
+			}
+			String[] descriptor = readDescriptor(descriptorUrl);
+			URL payloadUrl = Activator.getBundleURL(new Path("installer/" + descriptor[0]));
+			if (payloadUrl == null) {
+				throw notAvailable();
+			}
+
+			File file = getCachedCopy(payloadUrl, descriptor[0], descriptor[1]);
+			cached = file;
+			cachedSize = file.length();
+			cachedModified = file.lastModified();
+			return new Path(file.getAbsolutePath());
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					"Anaconda Installer not available locally. Please visit [].", e);
+			throw new CoreException(status);
+		}
+	}
+
+	private static File getCachedCopy(URL bundleUrl, String name, String expectedSha) throws IOException,
+			CoreException {
+		File cacheDir = Activator.getStateLocation().append(CACHE_DIR).toFile();
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+			throw new IOException("Failed to create payload cache " + cacheDir);
+		}
+
+		// Resolve to a file: or jar: URL, unlike FileLocator.toFileURL this does not copy anything out of a jar
+		URL payloadUrl = FileLocator.resolve(bundleUrl);
+		File source = toLocalFile(payloadUrl);
+		URLConnection connection = null;
+		String sourceKey;
+		if (source != null) {
+			sourceKey = payloadUrl.toExternalForm() + "|" + source.length() + "|" + source.lastModified();
+		} else {
+			connection = payloadUrl.openConnection();
+			sourceKey = payloadUrl.toExternalForm() + "|" + connection.getContentLengthLong() + "|"
+					+ connection.getLastModified();
+		}
+
+		File indexFile = new File(cacheDir, INDEX_FILE);
+		Properties index = loadIndex(indexFile);
+		if (source != null) {
+			File inPlace = getInPlace(source, sourceKey, name, expectedSha, index, cacheDir);
+			if (inPlace != null) {
+				return inPlace;
+			}
+		}
+		String sha = index.getProperty(sourceKey);
+		if (sha != null && expectedSha.equalsIgnoreCase(sha)) {
+			File copy = new File(new File(cacheDir, sha), name);
+			if (copy.isFile() && String.valueOf(copy.length()).equals(index.getProperty(sha + ".size"))
+					&& String.valueOf(copy.lastModified()).equals(index.getProperty(sha + ".modified"))) {
+				return copy;
+			}
+		}
+
+		// Not cached yet, or the copy has changed since it was verified
+		File part = new File(cacheDir, name + ".part");
+		if (source != null) {
+			extract(source, part);
+		} else {
+			extract(connection.getInputStream(), part);
+		}
+		sha = sha256(part);
+		if (!expectedSha.equalsIgnoreCase(sha)) {
+			part.delete();
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Anaconda Installer '" + name
+					+ "' is corrupt: expected SHA-256 " + expectedSha + " but was " + sha + ".");
+			throw new CoreException(status);
+		}
+
+		File shaDir = new File(cacheDir, sha);
+		if (!shaDir.isDirectory() && !shaDir.mkdirs()) {
+			throw new IOException("Failed to create payload cache " + shaDir);
+		}
+		File copy = new File(shaDir, name);
+		try {
+			Files.move(part.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			// Windows refuses to move a file while the mapping used to hash it is still alive
+			Files.copy(part.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			part.delete();
+		}
+		copy.setExecutable(true);
+
+		index.setProperty(sourceKey, sha);
+		index.setProperty(sha + ".size", String.valueOf(copy.length()));
+		index.setProperty(sha + ".modified", String.valueOf(copy.lastModified()));
+		prune(cacheDir, index, sha);
+		storeIndex(indexFile, index);
+		return copy;
+	}
+
+	/**
+	 * Verify a payload of an unpacked fragment to use it where it is, without a copy. A payload that can not be made
+	 * executable is copied instead.
+	 *
+	 * @return the payload, or <code>null</code> if it has to be copied
+	 * @throws CoreException
+	 *             if the payload does not match its checksum
+	 */
+	private static File getInPlace(File source, String sourceKey, String name, String expectedSha, Properties index,
+			File cacheDir) throws IOException, CoreException {
+		if (!source.canExecute() && !source.setExecutable(true)) {
+			return null;
+		}
+		String key = IN_PLACE_PREFIX + sourceKey;
+		String sha = index.getProperty(key);
+		if (sha != null && expectedSha.equalsIgnoreCase(sha)) {
+			return source;
+		}
+		sha = sha256(source);
+		if (!expectedSha.equalsIgnoreCase(sha)) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Anaconda Installer '" + name
+					+ "' is corrupt: expected SHA-256 " + expectedSha + " but was " + sha + ".");
+			throw new CoreException(status);
+		}
+		for (String stale : index.stringPropertyNames()) {
+			if (stale.startsWith(IN_PLACE_PREFIX)) {
+				index.remove(stale);
+			}
+		}
+		index.setProperty(key, sha);
+		prune(cacheDir, index, null);
+		storeIndex(new File(cacheDir, INDEX_FILE), index);
+		return source;
+	}
+
+	/**
+	 * Delete the copies of payloads other than the one in use, and forget them in the index.
+	 *
+	 * @param keep
+	 *            checksum of the copy in use, or <code>null</code> if the payload is used in place
+	 */
+	private static void prune(File cacheDir, Properties index, String keep) {
+		File[] dirs = cacheDir.listFiles();
+		if (dirs != null) {
+			for (File dir : dirs) {
+				if (dir.isDirectory() && SHA_DIR.matcher(dir.getName()).matches() && !dir.getName().equals(keep)) {
+					TreeDeleter.delete(dir);
+				}
+			}
+		}
+		for (String key : index.stringPropertyNames()) {
+			String value = index.getProperty(key);
+			boolean copyEntry = !key.startsWith(IN_PLACE_PREFIX) && SHA_DIR.matcher(value).matches();
+			boolean copyMetadata = key.endsWith(".size") || key.endsWith(".modified");
+			if ((copyEntry && !value.equals(keep)) || (copyMetadata && !key.startsWith(keep + "."))) {
+				index.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Copy the payload out of an unpacked bundle. The transfer is file to file, which the OS can do without copying
+	 * through the VM.
+	 */
+	private static void extract(File source, File destination) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(destination);
+			try {
+				FileChannel channel = in.getChannel();
+				long size = channel.size();
+				long position = 0;
+				while (position < size) {
+					position += channel.transferTo(position, size - position, out.getChannel());
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Copy the payload out of a bundle jar, streaming the entry straight into the file channel.
+	 */
+	private static void extract(InputStream in, File destination) throws IOException {
+		try {
+			FileOutputStream out = new FileOutputStream(destination);
+			try {
+				ReadableByteChannel channel = Channels.newChannel(in);
+				FileChannel target = out.getChannel();
+				long position = 0;
+				long read;
+				while ((read = target.transferFrom(channel, position, MAP_CHUNK_SIZE)) > 0) {
+					position += read;
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	private static File toLocalFile(URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			File file = new File(url.toURI());
+			return file.isFile() ? file : null;
+		} catch (URISyntaxException e) {
+			File file = new File(url.getPath());
+			return file.isFile() ? file : null;
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String sha256(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			for (long position = 0; position < size; position += MAP_CHUNK_SIZE) {
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						Math.min(MAP_CHUNK_SIZE, size - position));
+				digest.update(buffer);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return the payload file name and its expected SHA-256
+	 * @throws CoreException
+	 *             if the descriptor does not name a payload or give a valid SHA-256 for it
+	 */
+	private static String[] readDescriptor(URL descriptorUrl) throws IOException, CoreException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(descriptorUrl.openStream(), UTF8));
+		try {
+			String filePath = reader.readLine();
+			if (filePath == null || filePath.trim().length() == 0) {
+				throw notAvailable();
+			}
+			String sha = reader.readLine();
+			if (sha == null || !SHA_DIR.matcher(sha.trim().toLowerCase()).matches()) {
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, DESCRIPTOR
+						+ " gives no valid SHA-256 for the Anaconda Installer '" + filePath.trim()
+						+ "', it can not be verified.");
+				throw new CoreException(status);
+			}
+			return new String[] { filePath.trim(), sha.trim().toLowerCase() };
+		} finally {
+			reader.close();
+		}
+	}
+
+	private static Properties loadIndex(File indexFile) {
+		Properties index = new Properties();
+		if (indexFile.isFile()) {
+			try {
+				InputStream in = new FileInputStream(indexFile);
+				try {
+					index.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				// treat an unreadable index as empty, it is rebuilt as payloads are extracted
+			}
+		}
+		return index;
+	}
+
+	private static void storeIndex(File indexFile, Properties index) throws IOException {
+		File part = new File(indexFile.getPath() + ".part");
+		OutputStream out = new FileOutputStream(part);
+		try {
+			index.store(out, "Anaconda installer payloads, by bundle entry and SHA-256");
+		} finally {
+			out.close();
+		}
+		Files.move(part.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static CoreException notAvailable() {
+		Status status = new Status(IStatus.INFO, Activator.PLUGIN_ID,
+				"Anaconda Installer not available. Please visit [].");
+		return new CoreException(status);
+	}
+}
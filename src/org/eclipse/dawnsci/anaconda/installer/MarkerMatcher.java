@@ -0,0 +1,51 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * Finds a fixed marker string in text that arrives in arbitrary chunks, including occurrences that straddle two
+ * chunks. Matching is done a char at a time against a precomputed failure table (Knuth-Morris-Pratt) so no text is
+ * buffered.
+ */
+final class MarkerMatcher {
+
+	private final char[] marker;
+	private final int[] failure;
+	private int matched;
+
+	/**
+	 * @param marker
+	 *            non-empty text to look for
+	 */
+	MarkerMatcher(String marker) {
+		this.marker = marker.toCharArray();
+		this.failure = new int[this.marker.length];
+		int k = 0;
+		for (int i = 1; i < this.marker.length; i++) {
+			while (k > 0 && this.marker[i] != this.marker[k]) {
+				k = failure[k - 1];
+			}
+			if (this.marker[i] == this.marker[k]) {
+				k++;
+			}
+			failure[i] = k;
+		}
+	}
+
+	/**
+	 * Feed the next char of the text.
+	 * 
+	 * @return <code>true</code> if this char completes an occurrence of the marker
+	 */
+	boolean next(char c) {
+		while (matched > 0 && c != marker[matched]) {
+			matched = failure[matched - 1];
+		}
+		if (c == marker[matched]) {
+			matched++;
+		}
+		if (matched == marker.length) {
+			matched = failure[matched - 1];
+			return true;
+		}
+		return false;
+	}
+}
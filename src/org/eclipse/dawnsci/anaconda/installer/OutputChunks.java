@@ -0,0 +1,19 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * Passes chunks of process output to an {@link InstallOutputHandler}, in bulk if it is an
+ * {@link InstallOutputChunkHandler} and as a String otherwise.
+ */
+final class OutputChunks {
+
+	private OutputChunks() {
+	}
+
+	static void output(InstallOutputHandler handler, char[] chars, int offset, int length) {
+		if (handler instanceof InstallOutputChunkHandler) {
+			((InstallOutputChunkHandler) handler).output(chars, offset, length);
+		} else {
+			handler.output(new String(chars, offset, length));
+		}
+	}
+}
@@ -0,0 +1,467 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Downloads and extracts the packages of an explicit package list into a conda package cache ahead of
+ * <code>conda install</code>, several packages at a time, so that conda finds them all cached and only has to link.
+ * <p>
+ * Packages are fetched from the URLs in the list, or from the same platform subdirectory of a mirror channel, which
+ * can be any URL Java can open (<code>http:</code>, <code>file:</code>, ...). Each download is checked against the
+ * MD5 in the list before it is extracted. The JDK can not read bzip2, so tarballs are extracted by the system
+ * <code>tar</code>, one process per package.
+ * <p>
+ * The Miniconda installer refuses to install into a directory that exists, so while it runs the packages are put in
+ * a staging directory, and moved into the package cache of the new installation once it is there. A package that
+ * fails to prefetch is left for conda to fetch as usual.
+ * <p>
+ * A package cache shared between installs is never written to directly, since installs running at the same time
+ * would fetch and extract the same package over each other. Each install stages its packages in a directory of its
+ * own, next to the cache so the move is a rename, and each package is renamed into the cache whole; a package
+ * another install has already put there is used as it is.
+ */
+final class PackagePrefetcher {
+
+	/**
+	 * Number of packages fetched and extracted at the same time
+	 */
+	private static final int THREADS = 4;
+
+	/**
+	 * How often the monitor is checked while waiting for packages
+	 */
+	private static final long WAIT_INTERVAL_MS = 100;
+
+	private static final String TARBALL_EXTENSION = ".tar.bz2";
+	private static final String URLS_FILE = "urls.txt";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final class Package {
+		final String url;
+		final String md5;
+		final String fileName;
+		final String dist;
+
+		Package(String url, String md5) {
+			this.url = url;
+			this.md5 = md5;
+			this.fileName = url.substring(url.lastIndexOf('/') + 1);
+			this.dist = fileName.substring(0, fileName.length() - TARBALL_EXTENSION.length());
+		}
+	}
+
+	private final List<Package> packages = new ArrayList<Package>();
+	private final File stagingDir;
+	private final File sharedCacheDir;
+	private final String mirror;
+	private final InstallMetrics metrics;
+	private final List<Future<?>> tasks = new ArrayList<Future<?>>();
+	private final ConcurrentLinkedQueue<Package> fetched = new ConcurrentLinkedQueue<Package>();
+	private final ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<String>();
+	private ExecutorService executor;
+	private InstallMetrics.Span span;
+
+	/**
+	 * @param spec
+	 *            explicit package list, see {@link ExplicitSpecCache}
+	 * @param stagingDir
+	 *            directory of this install only to put the packages in until
+	 *            {@link #finish(File, InstallOutputHandler)}
+	 * @param sharedCacheDir
+	 *            package cache shared with other installs, packages already in it are not fetched, or
+	 *            <code>null</code>
+	 * @param mirror
+	 *            channel to fetch the packages from instead of the URLs in the list, or <code>null</code>
+	 */
+	PackagePrefetcher(File spec, File stagingDir, File sharedCacheDir, String mirror, InstallMetrics metrics)
+			throws IOException {
+		this.stagingDir = stagingDir;
+		this.sharedCacheDir = sharedCacheDir;
+		this.mirror = mirror;
+		this.metrics = metrics;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(spec), UTF8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#") || line.startsWith("@")) {
+					continue;
+				}
+				int hash = line.indexOf('#');
+				String url = hash < 0 ? line : line.substring(0, hash);
+				if (url.endsWith(TARBALL_EXTENSION)) {
+					packages.add(new Package(url, hash < 0 ? null : line.substring(hash + 1)));
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Start fetching in the background.
+	 */
+	void start() {
+		span = metrics.start("prefetch");
+		executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Anaconda Package Prefetch " + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		for (final Package pkg : packages) {
+			tasks.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						prefetch(pkg);
+						fetched.add(pkg);
+					} catch (IOException e) {
+						failures.add(pkg.fileName + ": " + e.getMessage());
+					}
+				}
+			}));
+		}
+		executor.shutdown();
+	}
+
+	/**
+	 * Stop fetching, packages not fetched yet are left to conda.
+	 */
+	void cancel() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Wait for the packages to be fetched, reporting one unit of work per package.
+	 *
+	 * @param monitor
+	 *            fetching stops if this monitor is canceled
+	 * @return <code>false</code> if the monitor was canceled
+	 */
+	boolean await(IProgressMonitor monitor) {
+		monitor.beginTask("Prefetching packages", packages.size());
+		for (Future<?> task : tasks) {
+			while (!task.isDone() && !monitor.isCanceled()) {
+				monitor.subTask("Waiting for " + (packages.size() - fetched.size() - failures.size())
+						+ " packages to be prefetched");
+				try {
+					task.get(WAIT_INTERVAL_MS, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					cancel();
+					return false;
+				} catch (ExecutionException e) {
+					// failures are recorded by the task itself
+				} catch (CancellationException e) {
+					// canceled before it started
+				} catch (TimeoutException e) {
+					// check the monitor again
+				}
+			}
+			monitor.worked(1);
+		}
+		if (monitor.isCanceled()) {
+			cancel();
+			return false;
+		}
+		monitor.done();
+		return true;
+	}
+
+	/**
+	 * Move the packages fetched into the package cache. Call once {@link #await(IProgressMonitor)} has returned
+	 * <code>true</code>.
+	 *
+	 * @param pkgsDir
+	 *            package cache conda will install from
+	 * @param feedbackHandler
+	 *            told what was prefetched and what failed
+	 */
+	void finish(File pkgsDir, InstallOutputHandler feedbackHandler) {
+		for (String failure : failures) {
+			feedbackHandler.output("Prefetch failed, conda will fetch it instead: " + failure + "\n");
+		}
+
+		List<String> urls = new ArrayList<String>();
+		Package pkg;
+		while ((pkg = fetched.poll()) != null) {
+			try {
+				moveIntoCache(new File(stagingDir, pkg.fileName), new File(pkgsDir, pkg.fileName));
+				moveIntoCache(new File(stagingDir, pkg.dist), new File(pkgsDir, pkg.dist));
+				urls.add(pkg.url);
+			} catch (IOException e) {
+				feedbackHandler.output("Prefetch failed, conda will fetch it instead: " + pkg.fileName + ": "
+						+ e.getMessage() + "\n");
+			}
+		}
+		try {
+			appendUrls(pkgsDir, urls);
+		} catch (IOException e) {
+			// conda still finds the extracted packages
+		}
+		try {
+			delete(stagingDir.toPath());
+		} catch (IOException e) {
+			// left behind in the state location or the shared cache
+		}
+		if (span != null) {
+			span.end();
+		}
+		feedbackHandler.output("Prefetched " + urls.size() + " of " + packages.size() + " packages\n");
+	}
+
+	private void prefetch(Package pkg) throws IOException {
+		if (sharedCacheDir != null && new File(sharedCacheDir, pkg.dist + File.separator + "info").isDirectory()) {
+			// fetched by another install, or an earlier one
+			metrics.count("prefetch.packages", 1);
+			return;
+		}
+		File tarball = new File(stagingDir, pkg.fileName);
+		if (!tarball.isFile() || (pkg.md5 != null && !pkg.md5.equalsIgnoreCase(md5(tarball)))) {
+			download(pkg, tarball);
+		}
+		File extracted = new File(stagingDir, pkg.dist);
+		if (!new File(extracted, "info").isDirectory()) {
+			extract(tarball, extracted);
+		}
+		metrics.count("prefetch.packages", 1);
+	}
+
+	private void download(Package pkg, File tarball) throws IOException {
+		String url = pkg.url;
+		if (mirror != null) {
+			// keep the platform subdirectory, e.g. linux-64/numpy-1.9.1-np19py27_0.tar.bz2
+			int name = url.lastIndexOf('/');
+			int subdir = url.lastIndexOf('/', name - 1);
+			url = (mirror.endsWith("/") ? mirror.substring(0, mirror.length() - 1) : mirror) + url.substring(subdir);
+		}
+		Files.createDirectories(stagingDir.toPath());
+		File part = new File(tarball.getPath() + ".part");
+		MessageDigest digest = newMd5();
+		InputStream in = new URL(url).openStream();
+		try {
+			OutputStream out = new FileOutputStream(part);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					if (Thread.currentThread().isInterrupted()) {
+						throw new IOException("canceled");
+					}
+					digest.update(buffer, 0, n);
+					out.write(buffer, 0, n);
+					metrics.count("prefetch.bytes", n);
+				}
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		String md5 = toHex(digest.digest());
+		if (pkg.md5 != null && !pkg.md5.equalsIgnoreCase(md5)) {
+			part.delete();
+			throw new IOException("MD5 of " + url + " is " + md5 + ", expected " + pkg.md5);
+		}
+		Files.move(part.toPath(), tarball.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private static void extract(File tarball, File extracted) throws IOException {
+		File part = new File(extracted.getPath() + ".part");
+		delete(part.toPath());
+		Files.createDirectories(part.toPath());
+		Process process = new ProcessBuilder("tar", "-xjf", tarball.getAbsolutePath(), "-C", part.getAbsolutePath())
+				.redirectErrorStream(true).start();
+		process.getOutputStream().close();
+		InputStream output = process.getInputStream();
+		try {
+			byte[] buffer = new byte[4096];
+			while (output.read(buffer) != -1) {
+				// drain, tar only prints on errors
+			}
+		} finally {
+			output.close();
+		}
+		int exitValue;
+		try {
+			exitValue = process.waitFor();
+		} catch (InterruptedException e) {
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new IOException("canceled");
+		}
+		if (exitValue != 0) {
+			throw new IOException("tar failed to extract " + tarball + " with exit code " + exitValue);
+		}
+		delete(extracted.toPath());
+		Files.move(part.toPath(), extracted.toPath());
+	}
+
+	/**
+	 * Move a prefetched file or directory into the package cache, unless the cache already has it (Miniconda puts
+	 * its own packages there, and other installs theirs in a shared cache). The package appears in the cache whole or
+	 * not at all: it is renamed into place, after being copied next to it if the staging directory is on another
+	 * file system.
+	 */
+	private static void moveIntoCache(File source, File target) throws IOException {
+		if (target.exists() || !source.exists()) {
+			return;
+		}
+		Files.createDirectories(target.getParentFile().toPath());
+		try {
+			Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return;
+		} catch (FileAlreadyExistsException e) {
+			// put there by another install meanwhile
+			return;
+		} catch (IOException e) {
+			if (target.exists()) {
+				return;
+			}
+			// the staging directory is on another file system
+		}
+		Path part = Files.createTempDirectory(target.getParentFile().toPath(), "." + target.getName() + ".part");
+		try {
+			Path copied = part.resolve(target.getName());
+			copy(source.toPath(), copied);
+			Files.move(copied, target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		} catch (FileAlreadyExistsException e) {
+			// put there by another install meanwhile
+		} finally {
+			delete(part);
+		}
+	}
+
+	private static void copy(final Path source, final Path target) throws IOException {
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.COPY_ATTRIBUTES,
+						LinkOption.NOFOLLOW_LINKS);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static void delete(Path path) throws IOException {
+		if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+			return;
+		}
+		Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				if (e != null) {
+					throw e;
+				}
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	/**
+	 * Record where the packages came from in the cache's <code>urls.txt</code>, as conda does for its own
+	 * downloads.
+	 */
+	private static void appendUrls(File pkgsDir, List<String> urls) throws IOException {
+		if (urls.isEmpty()) {
+			return;
+		}
+		Files.createDirectories(pkgsDir.toPath());
+		Writer writer = new OutputStreamWriter(new FileOutputStream(new File(pkgsDir, URLS_FILE), true), UTF8);
+		try {
+			for (String url : urls) {
+				writer.write(url);
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	private static String md5(File file) throws IOException {
+		MessageDigest digest = newMd5();
+		InputStream in = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int n;
+			while ((n = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, n);
+			}
+		} finally {
+			in.close();
+		}
+		return toHex(digest.digest());
+	}
+
+	private static MessageDigest newMd5() throws IOException {
+		try {
+			return MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+}
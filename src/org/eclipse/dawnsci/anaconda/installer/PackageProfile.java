@@ -0,0 +1,232 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.dawnsci.anaconda.Activator;
+
+/**
+ * A set of conda packages to install on top of Miniconda, as defined by the manifest
+ * <code>installer/package_profiles.properties</code>. The full <code>anaconda</code> metapackage is one profile, and
+ * the one used when there is no manifest; smaller profiles install a subset of it in a fraction of the time and disk.
+ * <p>
+ * A profile may extend another, installing its packages as well. The manifest is checked when it is read: every
+ * profile must list packages and a size, and the profiles extended must exist and not extend each other in a cycle.
+ * The packages installed for a profile are checked to be closed under their dependencies once conda is done, see
+ * {@link DependencyClosure}.
+ */
+public final class PackageProfile {
+
+	private static final String MANIFEST = "installer/package_profiles.properties";
+
+	/**
+	 * Id of the profile installing the full anaconda metapackage
+	 */
+	public static final String FULL_ID = "full";
+
+	/**
+	 * The full anaconda metapackage, used when there is no manifest
+	 */
+	public static final PackageProfile FULL = new PackageProfile(FULL_ID, "Full Anaconda",
+			Collections.singletonList("anaconda"), DestinationPreflight.EXPECTED_INSTALL_SIZE);
+
+	private static List<PackageProfile> profiles;
+	private static PackageProfile defaultProfile;
+
+	private final String id;
+	private final String label;
+	private final List<String> packages;
+	private final long size;
+
+	private PackageProfile(String id, String label, List<String> packages, long size) {
+		this.id = id;
+		this.label = label;
+		this.packages = Collections.unmodifiableList(packages);
+		this.size = size;
+	}
+
+	/**
+	 * @return the id of the profile in the manifest
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the name to show for the profile
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * @return the packages to have conda install, including those of the profiles extended
+	 */
+	public List<String> getPackages() {
+		return packages;
+	}
+
+	/**
+	 * @return disk space, in bytes, an installation of the profile takes
+	 */
+	public long getSize() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> for the full anaconda metapackage
+	 */
+	public boolean isFull() {
+		return FULL_ID.equals(id);
+	}
+
+	/**
+	 * @return name the explicit package list of an install of the profile is cached under, the installer name for the
+	 *         full profile so its lists are those of earlier installs
+	 */
+	String getSpecName(String installerName) {
+		return isFull() ? installerName : installerName + "-" + id;
+	}
+
+	/**
+	 * @return phase of the install journal the packages of the profile are recorded as installed under
+	 */
+	String getJournalPhase() {
+		return isFull() ? InstallJournal.ANACONDA_PHASE : InstallJournal.ANACONDA_PHASE + "." + id;
+	}
+
+	@Override
+	public String toString() {
+		return label;
+	}
+
+	/**
+	 * @return the profiles of the manifest in the order they are offered, or only {@link #FULL} if there is no
+	 *         manifest
+	 * @throws CoreException
+	 *             if the manifest is not consistent
+	 */
+	public static synchronized List<PackageProfile> getProfiles() throws CoreException {
+		if (profiles == null) {
+			load();
+		}
+		return profiles;
+	}
+
+	/**
+	 * @return the profile selected to start with
+	 */
+	public static synchronized PackageProfile getDefault() throws CoreException {
+		if (profiles == null) {
+			load();
+		}
+		return defaultProfile;
+	}
+
+	/**
+	 * @return the profile of the manifest with the given id
+	 * @throws CoreException
+	 *             if there is no such profile
+	 */
+	public static PackageProfile getProfile(String id) throws CoreException {
+		for (PackageProfile profile : getProfiles()) {
+			if (profile.getId().equals(id)) {
+				return profile;
+			}
+		}
+		throw invalid("There is no package profile '" + id + "'");
+	}
+
+	private static void load() throws CoreException {
+		URL url = Activator.getBundleURL(new Path(MANIFEST));
+		if (url == null) {
+			profiles = Collections.singletonList(FULL);
+			defaultProfile = FULL;
+			return;
+		}
+		Properties manifest = new Properties();
+		try {
+			InputStream in = url.openStream();
+			try {
+				manifest.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "Failed to read " + MANIFEST, e);
+			throw new CoreException(status);
+		}
+
+		Map<String, PackageProfile> loaded = new LinkedHashMap<String, PackageProfile>();
+		for (String id : manifest.getProperty("profiles", "").split(",")) {
+			id = id.trim();
+			if (id.length() > 0) {
+				loaded.put(id, parse(manifest, id, new ArrayList<String>()));
+			}
+		}
+		if (loaded.isEmpty()) {
+			throw invalid(MANIFEST + " defines no profiles");
+		}
+		String defaultId = manifest.getProperty("default", "").trim();
+		PackageProfile selected = loaded.get(defaultId);
+		if (selected == null) {
+			throw invalid(MANIFEST + " does not define its default profile '" + defaultId + "'");
+		}
+		profiles = Collections.unmodifiableList(new ArrayList<PackageProfile>(loaded.values()));
+		defaultProfile = selected;
+	}
+
+	/**
+	 * @param extending
+	 *            ids of the profiles extending this one, to find cycles
+	 */
+	private static PackageProfile parse(Properties manifest, String id, List<String> extending) throws CoreException {
+		if (extending.contains(id)) {
+			throw invalid("Package profiles extend each other in a cycle: " + extending + " and " + id);
+		}
+		String prefix = "profile." + id + ".";
+		String label = manifest.getProperty(prefix + "label");
+		String packageList = manifest.getProperty(prefix + "packages", "").trim();
+		String size = manifest.getProperty(prefix + "size");
+		if (label == null || packageList.length() == 0 || size == null) {
+			throw invalid("Package profile '" + id + "' needs a label, packages and a size");
+		}
+
+		Set<String> packages = new LinkedHashSet<String>();
+		String extended = manifest.getProperty(prefix + "extends");
+		if (extended != null && extended.trim().length() > 0) {
+			extended = extended.trim();
+			if (manifest.getProperty("profile." + extended + ".packages") == null) {
+				throw invalid("Package profile '" + id + "' extends '" + extended + "', which is not defined");
+			}
+			extending.add(id);
+			packages.addAll(parse(manifest, extended, extending).getPackages());
+		}
+		for (String name : packageList.split("\\s+")) {
+			packages.add(name);
+		}
+		try {
+			return new PackageProfile(id, label.trim(), new ArrayList<String>(packages),
+					Long.parseLong(size.trim()) * 1024 * 1024);
+		} catch (NumberFormatException e) {
+			throw invalid("Package profile '" + id + "' has a size that is not a number of MB: " + size);
+		}
+	}
+
+	private static CoreException invalid(String message) {
+		return new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, message));
+	}
+}
@@ -0,0 +1,156 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An input stream that reads its source ahead on a thread of its own.
+ * <p>
+ * Chained streams each get their own stage: in
+ * <code>new PrefetchInputStream(new GZIPInputStream(new PrefetchInputStream(file)))</code> one thread reads the file,
+ * another inflates it, and the thread reading the outer stream only consumes the result. The queue between stages is
+ * bounded, so a slow consumer holds back the stages before it rather than using more memory.
+ */
+final class PrefetchInputStream extends InputStream {
+
+	private static final int CHUNK_SIZE = 256 * 1024;
+	private static final int QUEUE_CHUNKS = 8;
+
+	/**
+	 * Marks the end of the source in the queue
+	 */
+	private static final byte[] EOF = new byte[0];
+
+	private final InputStream source;
+	private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(QUEUE_CHUNKS);
+	private final Thread thread;
+	private volatile IOException failure;
+	private volatile boolean closed;
+
+	private byte[] current;
+	private int position;
+	private int limit;
+
+	/**
+	 * @param source
+	 *            stream to read ahead, closed when this stream is closed
+	 * @param name
+	 *            name of the thread doing the reading
+	 */
+	PrefetchInputStream(InputStream source, String name) {
+		this.source = source;
+		this.thread = new Thread(name) {
+			@Override
+			public void run() {
+				fill();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void fill() {
+		try {
+			while (!closed) {
+				byte[] chunk = new byte[CHUNK_SIZE];
+				int length = 0;
+				int n;
+				while (length < chunk.length && (n = source.read(chunk, length, chunk.length - length)) != -1) {
+					length += n;
+				}
+				if (length > 0) {
+					// the last chunk is usually short, copy it so every array in the queue is exactly full
+					queue.put(length == chunk.length ? chunk : trim(chunk, length));
+				}
+				if (length < chunk.length) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			failure = e;
+		} catch (InterruptedException e) {
+			// closed while waiting for room in the queue
+		} finally {
+			try {
+				queue.put(EOF);
+			} catch (InterruptedException e) {
+				// closed, nobody is reading any more
+			}
+		}
+	}
+
+	private static byte[] trim(byte[] chunk, int length) {
+		byte[] trimmed = new byte[length];
+		System.arraycopy(chunk, 0, trimmed, 0, length);
+		return trimmed;
+	}
+
+	private boolean next() throws IOException {
+		if (current == EOF) {
+			return false;
+		}
+		try {
+			current = queue.take();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while reading ahead", e);
+		}
+		position = 0;
+		limit = current.length;
+		if (current == EOF) {
+			if (failure != null) {
+				throw failure;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position == limit && !next()) {
+			return -1;
+		}
+		return current[position++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == limit && !next()) {
+			return -1;
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(current, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	/**
+	 * @return the bytes read ahead so far. When none are, this waits for the next chunk, so that a consumer such as
+	 *         {@link java.util.zip.GZIPInputStream} checking for another member only sees 0 at the end of the source.
+	 */
+	@Override
+	public int available() throws IOException {
+		long available = limit - position;
+		for (byte[] chunk : queue) {
+			available += chunk.length;
+		}
+		if (available == 0 && next()) {
+			available = limit - position;
+		}
+		return (int) Math.min(available, Integer.MAX_VALUE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		closed = true;
+		thread.interrupt();
+		queue.clear();
+		source.close();
+	}
+}
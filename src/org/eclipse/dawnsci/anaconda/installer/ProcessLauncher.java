@@ -0,0 +1,23 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Launches the processes an {@link Installer} runs. The default launches them for real, see
+ * {@link TranscriptLauncher} for one that records or replays them.
+ */
+public interface ProcessLauncher {
+
+	/**
+	 * @param cmdarray
+	 *            command and arguments
+	 * @param envp
+	 *            environment as <code>name=value</code> strings, or <code>null</code> to inherit this one
+	 * @param workingDir
+	 *            working directory, or <code>null</code> for the current one
+	 * @return the launched process
+	 */
+	Process launch(String[] cmdarray, String[] envp, File workingDir) throws IOException;
+
+}
@@ -0,0 +1,292 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Runs the stream I/O and exit wait of launched installer processes on a small pool of shared threads.
+ * <p>
+ * Each process takes two threads of the pool, one reading each output stream, and the reader that finishes last
+ * waits for the process to exit. The readers of a process are queued together, so when more processes run than the
+ * pool has threads for, the later ones wait for a pair of threads rather than each holding one half of a pair.
+ * <p>
+ * Each call to {@link #start(Process, IProgressMonitor, StreamListener, StreamListener, String)} returns a
+ * {@link Handle} that completes as soon as the process has exited and both of its output streams have been fully
+ * read. Cancellation is pushed to the process: {@link Handle#cancel()} kills it and its children straight away, and a
+ * single shared watchdog does the same for every supervised process whose monitor has been canceled, so the thread
+ * waiting on the handle never has to poll.
+ */
+public final class ProcessSupervisor {
+
+	/**
+	 * Receives chunks of text read from one of the output streams of a supervised process. Called on a pool thread.
+	 */
+	public interface StreamListener {
+		/**
+		 * @param chars
+		 *            buffer holding the text read, reused once this method returns
+		 * @param offset
+		 *            index of the first char read
+		 * @param length
+		 *            number of chars read
+		 */
+		void output(char[] chars, int offset, int length);
+	}
+
+	/**
+	 * Completion handle for a supervised process.
+	 */
+	public static final class Handle {
+		/**
+		 * Counted down once the process has exited and both its streams are read
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+
+		/**
+		 * Number of output streams still being read
+		 */
+		private final AtomicInteger streams = new AtomicInteger(2);
+		private final Process process;
+		private volatile boolean canceled;
+		private volatile boolean exited;
+		private volatile ScheduledFuture<?> cancelWatch;
+
+		private Handle(Process process) {
+			this.process = process;
+		}
+
+		/**
+		 * Kill the process and the processes it started, see {@link ProcessTree}. The handle completes once its
+		 * streams have drained.
+		 */
+		public void cancel() {
+			canceled = true;
+			// once waited for, the pid of the process may be reused by another
+			if (!exited) {
+				ProcessTree.kill(process);
+			}
+		}
+
+		/**
+		 * @return <code>true</code> if {@link #cancel()} has been called, either directly or because the monitor
+		 *         was canceled
+		 */
+		public boolean isCanceled() {
+			return canceled;
+		}
+
+		/**
+		 * @return <code>true</code> if the process has exited and its streams are fully read
+		 */
+		public boolean isDone() {
+			return done.getCount() == 0;
+		}
+
+		/**
+		 * Wait until the process has exited and all of its streams have been handled. If the calling thread is
+		 * interrupted the process is canceled and the wait continues until it is done.
+		 *
+		 * @return exit value of the process
+		 */
+		public int waitFor() {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					done.await();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+					cancel();
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return process.exitValue();
+		}
+
+		/**
+		 * Called by each stream reader when its stream ends. The last one waits for the process to exit, and stops
+		 * watching the monitor before the handle completes, so the process is never killed once it has exited.
+		 */
+		private void streamEnded() {
+			if (streams.decrementAndGet() > 0) {
+				return;
+			}
+			try {
+				while (true) {
+					try {
+						process.waitFor();
+						exited = true;
+						break;
+					} catch (InterruptedException e) {
+						// keep waiting, the process is destroyed through the handle
+					}
+				}
+			} finally {
+				ScheduledFuture<?> watch = cancelWatch;
+				if (watch != null) {
+					watch.cancel(false);
+				}
+				done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * How often the shared watchdog looks at the monitors of running processes
+	 */
+	private static final long CANCEL_CHECK_INTERVAL_MS = 20;
+
+	private static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Number of threads reading process output, two for each process
+	 */
+	private static final int POOL_THREADS = 8;
+
+	/**
+	 * Charset of the text written to the stdin of a process
+	 */
+	private static final Charset STDIN_CHARSET = Charset.forName("UTF-8");
+
+	private static ProcessSupervisor instance;
+
+	private final ExecutorService pool;
+	private final ScheduledExecutorService watchdog;
+
+	/**
+	 * @return the shared supervisor
+	 */
+	public static synchronized ProcessSupervisor getDefault() {
+		if (instance == null) {
+			instance = new ProcessSupervisor();
+		}
+		return instance;
+	}
+
+	private ProcessSupervisor() {
+		pool = Executors.newFixedThreadPool(POOL_THREADS, new NamedDaemonThreadFactory(
+				"Anaconda Installer Process I/O"));
+		watchdog = Executors.newSingleThreadScheduledExecutor(new NamedDaemonThreadFactory(
+				"Anaconda Installer Cancel Watchdog"));
+	}
+
+	/**
+	 * Start handling the streams of the given process.
+	 *
+	 * @param process
+	 *            the newly launched process
+	 * @param monitor
+	 *            the process is destroyed if this monitor is canceled
+	 * @param stdout
+	 *            receives everything the process writes to stdout
+	 * @param stderr
+	 *            receives everything the process writes to stderr
+	 * @param stdin
+	 *            text written to the stdin of the process before it is closed, may be <code>null</code> to just
+	 *            close stdin
+	 * @return handle to wait for or cancel the process
+	 */
+	public Handle start(final Process process, final IProgressMonitor monitor, StreamListener stdout,
+			StreamListener stderr, final String stdin) {
+		final Handle handle = new Handle(process);
+
+		// Watch the monitor before anything can complete the handle, which then stops the watch
+		if (monitor != null) {
+			handle.cancelWatch = watchdog.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					if (!handle.canceled && monitor.isCanceled()) {
+						handle.cancel();
+					}
+				}
+			}, CANCEL_CHECK_INTERVAL_MS, CANCEL_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		}
+
+		// stdin is written here, what the installers are given is far smaller than a pipe holds
+		OutputStream os = process.getOutputStream();
+		try {
+			if (stdin != null) {
+				os.write(stdin.getBytes(STDIN_CHARSET));
+			}
+		} catch (IOException e) {
+			// process has gone away, nothing more to write
+		} finally {
+			try {
+				os.close();
+			} catch (IOException e) {
+				// Ignore close error
+			}
+		}
+
+		synchronized (pool) {
+			pool.execute(new StreamPump(process.getInputStream(), stdout, handle));
+			pool.execute(new StreamPump(process.getErrorStream(), stderr, handle));
+		}
+		return handle;
+	}
+
+	private static final class StreamPump implements Runnable {
+		private final InputStream is;
+		private final StreamListener listener;
+		private final Handle handle;
+
+		StreamPump(InputStream is, StreamListener listener, Handle handle) {
+			this.is = is;
+			this.listener = listener;
+			this.handle = handle;
+		}
+
+		@Override
+		public void run() {
+			try {
+				Reader in = new InputStreamReader(is);
+				char[] buf = new char[BUFFER_SIZE];
+				int n;
+				while ((n = in.read(buf, 0, buf.length)) != -1) {
+					listener.output(buf, 0, n);
+				}
+			} catch (Exception e) {
+				// that's ok, process has completed, stream is closed
+			} finally {
+				try {
+					is.close();
+				} catch (IOException e) {
+					// Ignore close error
+				}
+				handle.streamEnded();
+			}
+		}
+	}
+
+	private static final class NamedDaemonThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger count = new AtomicInteger();
+
+		NamedDaemonThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, name + " " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,352 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * What a process wrote to stdout and stderr, chunk by chunk with the time between chunks, and its exit code.
+ * <p>
+ * A transcript is made by {@link #record(Process, File)}, which passes the output of a real process through while
+ * recording it, and played back by {@link #replay(double)}, which gives a process that writes the same chunks with
+ * the same (or scaled) delays and exits with the same code. Transcripts are stored in a small binary format: a magic
+ * string and the exit code, then for each chunk the stream it was written to, the delay since the previous chunk in
+ * milliseconds and the bytes written.
+ */
+public final class ProcessTranscript {
+
+	private static final String MAGIC = "ANACONDA-TRANSCRIPT-1";
+	private static final byte END = 0;
+	private static final byte STDOUT = 1;
+	private static final byte STDERR = 2;
+
+	/**
+	 * Exit code of a replayed process that was destroyed, as a shell reports a process killed by SIGTERM
+	 */
+	private static final int DESTROYED_EXIT_CODE = 143;
+
+	private static final int PIPE_SIZE = 64 * 1024;
+
+	private static final class Chunk {
+		final byte stream;
+		final int delayMillis;
+		final byte[] bytes;
+
+		Chunk(byte stream, int delayMillis, byte[] bytes) {
+			this.stream = stream;
+			this.delayMillis = delayMillis;
+			this.bytes = bytes;
+		}
+	}
+
+	private final List<Chunk> chunks = new ArrayList<Chunk>();
+	private int exitCode;
+
+	private ProcessTranscript() {
+	}
+
+	/**
+	 * @return the exit code of the process
+	 */
+	public int getExitCode() {
+		return exitCode;
+	}
+
+	/**
+	 * @return everything the process wrote to stdout, the chunks joined
+	 */
+	byte[] getStdout() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (Chunk chunk : chunks) {
+			if (chunk.stream == STDOUT) {
+				out.write(chunk.bytes, 0, chunk.bytes.length);
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read a transcript written by {@link #record(Process, File)}.
+	 */
+	public static ProcessTranscript read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			if (!MAGIC.equals(in.readUTF())) {
+				throw new IOException(file + " is not a process transcript");
+			}
+			ProcessTranscript transcript = new ProcessTranscript();
+			transcript.exitCode = in.readInt();
+			byte stream;
+			while ((stream = in.readByte()) != END) {
+				int delayMillis = in.readInt();
+				byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				transcript.chunks.add(new Chunk(stream, delayMillis, bytes));
+			}
+			return transcript;
+		} finally {
+			in.close();
+		}
+	}
+
+	private void write(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeUTF(MAGIC);
+			out.writeInt(exitCode);
+			for (Chunk chunk : chunks) {
+				out.writeByte(chunk.stream);
+				out.writeInt(chunk.delayMillis);
+				out.writeInt(chunk.bytes.length);
+				out.write(chunk.bytes);
+			}
+			out.writeByte(END);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Record the output of a process as it is read. The transcript is written to the file once both output streams
+	 * have ended and the process has been waited for.
+	 *
+	 * @param process
+	 *            newly launched process
+	 * @param file
+	 *            file to write the transcript to
+	 * @return a process to use in place of the given one
+	 */
+	public static Process record(Process process, File file) {
+		return new RecordingProcess(process, file);
+	}
+
+	/**
+	 * Start a process that replays this transcript.
+	 *
+	 * @param speed
+	 *            how many times faster than recorded to replay, 1 for the original timing, 0 to replay as fast as
+	 *            possible
+	 * @return the replaying process, its stdin is discarded
+	 */
+	public Process replay(double speed) {
+		return new ReplayedProcess(speed);
+	}
+
+	/**
+	 * Passes the streams of a real process through, adding what is read from them to a transcript.
+	 */
+	private static final class RecordingProcess extends Process {
+		private final Process process;
+		private final File file;
+		private final ProcessTranscript transcript = new ProcessTranscript();
+		private final InputStream stdout;
+		private final InputStream stderr;
+		/** Counted down when each stream ends and when the process has been waited for */
+		private final AtomicInteger remaining = new AtomicInteger(3);
+		private long last = System.nanoTime();
+		private boolean waited;
+
+		RecordingProcess(Process process, File file) {
+			this.process = process;
+			this.file = file;
+			this.stdout = new RecordingStream(process.getInputStream(), STDOUT);
+			this.stderr = new RecordingStream(process.getErrorStream(), STDERR);
+		}
+
+		private final class RecordingStream extends FilterInputStream {
+			private final byte stream;
+			private boolean ended;
+
+			RecordingStream(InputStream in, byte stream) {
+				super(in);
+				this.stream = stream;
+			}
+
+			@Override
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) {
+					add(stream, Arrays.copyOfRange(b, off, off + n));
+				} else if (n < 0 && !ended) {
+					ended = true;
+					finished();
+				}
+				return n;
+			}
+		}
+
+		private synchronized void add(byte stream, byte[] bytes) {
+			long now = System.nanoTime();
+			transcript.chunks.add(new Chunk(stream, (int) ((now - last) / 1000000), bytes));
+			last = now;
+		}
+
+		private void finished() {
+			if (remaining.decrementAndGet() == 0) {
+				try {
+					synchronized (this) {
+						transcript.exitCode = process.exitValue();
+						transcript.write(file);
+					}
+				} catch (IOException e) {
+					// The recording is lost, the install itself is unaffected
+				}
+			}
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return process.getOutputStream();
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return stdout;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return stderr;
+		}
+
+		@Override
+		public int waitFor() throws InterruptedException {
+			int exitValue = process.waitFor();
+			synchronized (this) {
+				if (waited) {
+					return exitValue;
+				}
+				waited = true;
+			}
+			finished();
+			return exitValue;
+		}
+
+		@Override
+		public int exitValue() {
+			return process.exitValue();
+		}
+
+		@Override
+		public void destroy() {
+			// destroyed only to cancel, so the processes it started go too
+			ProcessTree.kill(process);
+		}
+	}
+
+	/**
+	 * Writes the chunks of the transcript to its output streams from a thread of its own, sleeping between them.
+	 */
+	private final class ReplayedProcess extends Process {
+		private final PipedInputStream stdout = new PipedInputStream(PIPE_SIZE);
+		private final PipedInputStream stderr = new PipedInputStream(PIPE_SIZE);
+		private final CountDownLatch exited = new CountDownLatch(1);
+		private final Thread writer;
+		private volatile boolean destroyed;
+
+		ReplayedProcess(final double speed) {
+			final PipedOutputStream out;
+			final PipedOutputStream err;
+			try {
+				out = new PipedOutputStream(stdout);
+				err = new PipedOutputStream(stderr);
+			} catch (IOException e) {
+				// the pipes are new, so can not already be connected
+				throw new IllegalStateException(e);
+			}
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (Chunk chunk : chunks) {
+							if (speed > 0 && chunk.delayMillis > 0) {
+								Thread.sleep((long) (chunk.delayMillis / speed));
+							}
+							(chunk.stream == STDOUT ? out : err).write(chunk.bytes);
+						}
+					} catch (InterruptedException e) {
+						// destroyed
+					} catch (IOException e) {
+						// destroyed, or the reader closed its end
+					} finally {
+						close(out);
+						close(err);
+						exited.countDown();
+					}
+				}
+			}, "Anaconda Transcript Replay");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		private void close(OutputStream out) {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// Ignore close error
+			}
+		}
+
+		@Override
+		public OutputStream getOutputStream() {
+			return new OutputStream() {
+				@Override
+				public void write(int b) {
+					// a transcript does not depend on its input
+				}
+			};
+		}
+
+		@Override
+		public InputStream getInputStream() {
+			return stdout;
+		}
+
+		@Override
+		public InputStream getErrorStream() {
+			return stderr;
+		}
+
+		@Override
+		public int waitFor() throws InterruptedException {
+			exited.await();
+			return exitValue();
+		}
+
+		@Override
+		public int exitValue() {
+			if (exited.getCount() > 0) {
+				throw new IllegalThreadStateException("process has not exited");
+			}
+			return destroyed ? DESTROYED_EXIT_CODE : exitCode;
+		}
+
+		@Override
+		public void destroy() {
+			destroyed = true;
+			writer.interrupt();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Kills a launched process together with every process it started. Destroying an installer shell leaves conda and
+ * the processes conda started running; on Linux they are found through <code>/proc</code>, as the descendants of the
+ * process and, when the process leads its own process group, the members of that group which have been orphaned.
+ * <p>
+ * The tree is stopped first, repeatedly until no new process appears, so nothing can start more processes while it
+ * is being killed. Where <code>/proc</code> or the process id is not available the process itself is destroyed.
+ */
+final class ProcessTree {
+
+	/**
+	 * Times the tree is looked at again for processes started while it was being stopped
+	 */
+	private static final int MAX_STOP_ROUNDS = 5;
+
+	private static final File PROC = new File("/proc");
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private ProcessTree() {
+	}
+
+	/**
+	 * Kill the process and all of its descendants.
+	 */
+	static void kill(Process process) {
+		int pid = getPid(process);
+		if (pid > 0 && PROC.isDirectory()) {
+			Set<Integer> stopped = new LinkedHashSet<Integer>();
+			for (int round = 0; round < MAX_STOP_ROUNDS; round++) {
+				Set<Integer> tree = getTree(pid);
+				tree.removeAll(stopped);
+				if (tree.isEmpty()) {
+					break;
+				}
+				signal("-STOP", tree);
+				stopped.addAll(tree);
+			}
+			if (!stopped.isEmpty()) {
+				signal("-KILL", stopped);
+			}
+		}
+		process.destroy();
+	}
+
+	/**
+	 * @return the id of a launched process, or -1 if it can not be told
+	 */
+	static int getPid(Process process) {
+		try {
+			// java.lang.UNIXProcess, the only implementation on Linux and Mac
+			Field field = process.getClass().getDeclaredField("pid");
+			field.setAccessible(true);
+			return field.getInt(process);
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @return the process and its live descendants, parents before their children
+	 */
+	private static Set<Integer> getTree(int pid) {
+		Map<Integer, List<Integer>> children = new HashMap<Integer, List<Integer>>();
+		List<Integer> group = new ArrayList<Integer>();
+		File[] entries = PROC.listFiles();
+		if (entries != null) {
+			for (File entry : entries) {
+				int[] stat = readStat(entry);
+				if (stat == null) {
+					continue;
+				}
+				List<Integer> siblings = children.get(stat[1]);
+				if (siblings == null) {
+					siblings = new ArrayList<Integer>();
+					children.put(stat[1], siblings);
+				}
+				siblings.add(stat[0]);
+				// orphans of the process that stayed in its group, only if it leads the group
+				if (stat[2] == pid && stat[0] != pid) {
+					group.add(stat[0]);
+				}
+			}
+		}
+
+		Set<Integer> tree = new LinkedHashSet<Integer>();
+		List<Integer> pending = new ArrayList<Integer>();
+		pending.add(pid);
+		pending.addAll(group);
+		while (!pending.isEmpty()) {
+			Integer next = pending.remove(pending.size() - 1);
+			if (tree.add(next)) {
+				List<Integer> nextChildren = children.get(next);
+				if (nextChildren != null) {
+					pending.addAll(nextChildren);
+				}
+			}
+		}
+		return tree;
+	}
+
+	/**
+	 * @return pid, parent pid and process group of a <code>/proc</code> entry, or <code>null</code> if it is not a
+	 *         live process
+	 */
+	private static int[] readStat(File entry) {
+		String name = entry.getName();
+		if (name.length() == 0 || !Character.isDigit(name.charAt(0))) {
+			return null;
+		}
+		try {
+			String stat = new String(Files.readAllBytes(new File(entry, "stat").toPath()), UTF8);
+			// pid (comm) state ppid pgrp ..., comm may itself hold spaces and parentheses
+			String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+			if ("Z".equals(fields[0])) {
+				return null;
+			}
+			return new int[] { Integer.parseInt(name), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]) };
+		} catch (IOException e) {
+			// exited while the tree was looked at
+			return null;
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	private static void signal(String signal, Set<Integer> pids) {
+		List<String> command = new ArrayList<String>(pids.size() + 2);
+		command.add("kill");
+		command.add(signal);
+		for (Integer pid : pids) {
+			command.add(pid.toString());
+		}
+		try {
+			Process kill = new ProcessBuilder(command).redirectErrorStream(true).start();
+			kill.getOutputStream().close();
+			InputStream output = kill.getInputStream();
+			try {
+				byte[] buffer = new byte[1024];
+				while (output.read(buffer) != -1) {
+					// drain, kill only complains about processes that have gone
+				}
+			} finally {
+				output.close();
+			}
+			kill.waitFor();
+		} catch (IOException e) {
+			// the processes are left to the destroy of the process itself
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.dawnsci.anaconda.Activator;
+import org.eclipse.dawnsci.anaconda.InstallRegistry;
+import org.python.pydev.shared_core.utils.PlatformUtils;
+
+/**
+ * Installs Anaconda once into a shared base, e.g. under <code>/opt</code>, and gives each user an environment cloned
+ * from it, so a user install takes seconds and little disk rather than a full download and install.
+ * <p>
+ * A base is complete once its {@link InstallJournal} records it as shared. Until then every install that may write
+ * the base location runs the given installer to it, whose install lock makes concurrent installs wait for one to
+ * complete and then reuse it, and which resumes an install that failed or was canceled. The completed base is then
+ * recorded as shared, made read-only and registered, and every install, the first included, clones its environment
+ * from the base with a {@link CloneInstaller}, hard linking files where the file system and its protections allow and
+ * linking symbolically otherwise. The python of the environment is what is handed to the complete handler.
+ */
+public final class SharedBaseInstaller implements IInstaller {
+
+	/**
+	 * Share of the progress given to installing the base, when it has to be
+	 */
+	private static final int BASE_WEIGHT = 90;
+	private static final int CLONE_WEIGHT = 10;
+
+	private final File base;
+	private final IInstaller baseInstaller;
+
+	/**
+	 * @param basePath
+	 *            root of the shared base
+	 * @param baseInstaller
+	 *            installs the base if it is not there yet
+	 */
+	public SharedBaseInstaller(String basePath, IInstaller baseInstaller) {
+		this.base = new File(basePath).getAbsoluteFile();
+		this.baseInstaller = baseInstaller;
+	}
+
+	@Override
+	public void runInstall(String installPath, IProgressMonitor monitor, final InstallOutputHandler feedbackHandler,
+			IInstallCompleteHandler completeHandler) throws CoreException {
+		SubMonitor progress = SubMonitor.convert(monitor, "Installing", BASE_WEIGHT + CLONE_WEIGHT);
+		feedbackHandler.starting();
+		// The output of the base install and of the clone go to the same console
+		InstallOutputHandler handler = new InstallOutputChunkHandler() {
+			@Override
+			public void starting() {
+			}
+
+			@Override
+			public void output(String string) {
+				feedbackHandler.output(string);
+			}
+
+			@Override
+			public void output(char[] chars, int offset, int length) {
+				OutputChunks.output(feedbackHandler, chars, offset, length);
+			}
+		};
+
+		if (new InstallJournal(base).isComplete(InstallJournal.SHARED_PHASE)) {
+			progress.worked(BASE_WEIGHT);
+		} else {
+			if (!canCreate(base)) {
+				Status status = new Status(IStatus.ERROR, Activator.PLUGIN_ID, "The shared Anaconda installation '"
+						+ base + "' is not installed, or its install did not complete, and can not be installed "
+						+ "by this user. Please ask an administrator to run the install to it.");
+				throw new CoreException(status);
+			}
+			// The base installer holds the install lock, so a concurrent first install waits for this one and
+			// then reuses it, and an install that failed or was canceled is resumed
+			handler.output("Installing the shared Anaconda installation to " + base + "\n");
+			baseInstaller.runInstall(base.getPath(), progress.newChild(BASE_WEIGHT), handler,
+					new IInstallCompleteHandler() {
+						@Override
+						public void setInstallPath(String installPath) {
+							// it is the environment that is configured, not the base
+						}
+					});
+			share(base, handler);
+		}
+		InstallRegistry.getDefault().add(base.getPath());
+
+		handler.output("Creating the environment " + installPath + " from the shared installation\n");
+		CloneInstaller clone = new CloneInstaller(base.getPath());
+		clone.setShared(true);
+		clone.runInstall(installPath, progress.newChild(CLONE_WEIGHT), handler, completeHandler);
+		monitor.done();
+	}
+
+	@Override
+	public void runManualInstall() throws CoreException {
+		baseInstaller.runManualInstall();
+	}
+
+	/**
+	 * @return <code>true</code> if the directory is writable or, if it does not exist, its nearest existing parent is
+	 */
+	private static boolean canCreate(File dir) {
+		File existing = dir;
+		while (existing != null && !existing.exists()) {
+			existing = existing.getParentFile();
+		}
+		return existing != null && existing.isDirectory() && existing.canWrite();
+	}
+
+	/**
+	 * Record in the journal of a completed base that it is shared, and make it read-only. This is done under the
+	 * install lock, and only if the journal could be written, so a base is never made read-only without being
+	 * recorded as complete.
+	 */
+	private static void share(File base, InstallOutputHandler feedbackHandler) {
+		InstallLock lock;
+		try {
+			lock = InstallLock.tryAcquire(base);
+		} catch (IOException e) {
+			lock = null;
+		}
+		if (lock == null) {
+			// another install that found the base complete is sharing it
+			return;
+		}
+		try {
+			InstallJournal journal = new InstallJournal(base);
+			if (journal.isComplete(InstallJournal.SHARED_PHASE)) {
+				return;
+			}
+			journal.complete(InstallJournal.SHARED_PHASE);
+			if (!new InstallJournal(base).isComplete(InstallJournal.SHARED_PHASE)) {
+				feedbackHandler.output("Could not record " + base + " as complete, it is not made read-only\n");
+				return;
+			}
+			makeReadOnly(base, feedbackHandler);
+		} finally {
+			lock.release();
+		}
+	}
+
+	/**
+	 * Take away write permission from everything in the base, so that neither its users nor environments linked to
+	 * its files can change it. Nothing is made read-only on Windows, where read-only directories mean something else.
+	 */
+	private static void makeReadOnly(File base, InstallOutputHandler feedbackHandler) {
+		if (PlatformUtils.isWindowsPlatform()) {
+			return;
+		}
+		try {
+			Files.walkFileTree(base.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isRegularFile()) {
+						file.toFile().setWritable(false, false);
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+					dir.toFile().setWritable(false, false);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			feedbackHandler.output("Could not make " + base + " read-only: " + e.getMessage() + "\n");
+		}
+	}
+}
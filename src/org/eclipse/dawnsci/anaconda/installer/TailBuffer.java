@@ -0,0 +1,61 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+/**
+ * Fixed size ring buffer that keeps the last characters appended to it.
+ */
+final class TailBuffer {
+
+	private final char[] buffer;
+	/** Index the next char is written to */
+	private int head;
+	private boolean wrapped;
+	/** Number of chars appended in all */
+	private long total;
+
+	/**
+	 * @param capacity
+	 *            number of chars kept
+	 */
+	TailBuffer(int capacity) {
+		buffer = new char[capacity];
+	}
+
+	synchronized void append(char[] chars, int offset, int length) {
+		total += length;
+		if (length >= buffer.length) {
+			System.arraycopy(chars, offset + length - buffer.length, buffer, 0, buffer.length);
+			head = 0;
+			wrapped = true;
+			return;
+		}
+		int first = Math.min(length, buffer.length - head);
+		System.arraycopy(chars, offset, buffer, head, first);
+		System.arraycopy(chars, offset + first, buffer, 0, length - first);
+		if (head + length >= buffer.length) {
+			wrapped = true;
+		}
+		head = (head + length) % buffer.length;
+	}
+
+	synchronized int length() {
+		return wrapped ? buffer.length : head;
+	}
+
+	/**
+	 * @return <code>true</code> if older text has been discarded to make room
+	 */
+	synchronized boolean isTruncated() {
+		return total > buffer.length;
+	}
+
+	@Override
+	public synchronized String toString() {
+		if (!wrapped) {
+			return new String(buffer, 0, head);
+		}
+		StringBuilder sb = new StringBuilder(buffer.length);
+		sb.append(buffer, head, buffer.length - head);
+		sb.append(buffer, 0, head);
+		return sb.toString();
+	}
+}
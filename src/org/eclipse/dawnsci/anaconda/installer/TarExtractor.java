@@ -0,0 +1,442 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+
+/**
+ * Unpacks a (decompressed) tar stream into a directory.
+ * <p>
+ * The calling thread parses the stream. Small files are read into memory and handed to a pool of writer threads, so
+ * file creation overlaps with reading and decompressing the rest of the archive; large files are streamed straight
+ * to disk by the calling thread. The pool's queue is bounded, so when the disk falls behind parsing waits instead of
+ * buffering more. Hard links and then symbolic links are created once all files have been written, so no file of the
+ * archive is written through a link of the archive.
+ * <p>
+ * Regular files, directories, symbolic links and hard links are supported, with names from ustar prefixes, GNU long
+ * names and pax headers. Entries and links that lead outside the destination are refused: symbolic links must be
+ * relative and resolve inside it, and are not created through another symbolic link.
+ */
+final class TarExtractor {
+
+	private static final int BLOCK_SIZE = 512;
+
+	/**
+	 * Files up to this size are written by the writer pool, larger files by the parsing thread
+	 */
+	private static final int MAX_BUFFERED_FILE_SIZE = 4 * 1024 * 1024;
+
+	private static final int WRITE_QUEUE_SIZE = 64;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final File destination;
+	private final IProgressMonitor monitor;
+	private final AtomicReference<IOException> writeFailure = new AtomicReference<IOException>();
+	private final AtomicInteger files = new AtomicInteger();
+	private final List<String[]> hardLinks = new ArrayList<String[]>();
+	private final List<String[]> symbolicLinks = new ArrayList<String[]>();
+	private final byte[] header = new byte[BLOCK_SIZE];
+
+	/**
+	 * @param destination
+	 *            directory to unpack into
+	 * @param monitor
+	 *            checked for cancellation between entries
+	 */
+	TarExtractor(File destination, IProgressMonitor monitor) throws IOException {
+		this.destination = destination.getCanonicalFile();
+		this.monitor = monitor;
+	}
+
+	/**
+	 * @return number of files unpacked
+	 */
+	int getFileCount() {
+		return files.get();
+	}
+
+	/**
+	 * Unpack the whole stream.
+	 *
+	 * @return <code>false</code> if the monitor was canceled before the end of the archive
+	 */
+	boolean extract(InputStream in) throws IOException {
+		int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		ThreadPoolExecutor writers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(WRITE_QUEUE_SIZE), new ThreadPoolExecutor.CallerRunsPolicy());
+		boolean complete = false;
+		try {
+			complete = extractEntries(in, writers);
+		} finally {
+			writers.shutdown();
+			try {
+				writers.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (writeFailure.get() != null) {
+			throw writeFailure.get();
+		}
+		if (complete) {
+			for (String[] link : hardLinks) {
+				File target = resolve(link[1]);
+				File file = resolve(link[0]);
+				Files.deleteIfExists(file.toPath());
+				Files.createLink(file.toPath(), target.toPath());
+			}
+			for (String[] link : symbolicLinks) {
+				createSymbolicLink(link[0], link[1]);
+			}
+		}
+		return complete;
+	}
+
+	private boolean extractEntries(InputStream in, ThreadPoolExecutor writers) throws IOException {
+		String longName = null;
+		String longLink = null;
+		String paxPath = null;
+		String paxLinkPath = null;
+		long paxSize = -1;
+
+		while (readFully(in, header, BLOCK_SIZE)) {
+			if (isZeroBlock(header)) {
+				return true;
+			}
+			if (monitor.isCanceled() || writeFailure.get() != null) {
+				return false;
+			}
+
+			char type = (char) header[156];
+			long size = paxSize >= 0 ? paxSize : parseNumber(header, 124, 12);
+
+			if (type == 'L' || type == 'K' || type == 'x') {
+				byte[] data = readData(in, size);
+				if (type == 'L') {
+					longName = trimNul(new String(data, UTF8));
+				} else if (type == 'K') {
+					longLink = trimNul(new String(data, UTF8));
+				} else {
+					String[] pax = parsePax(data);
+					paxPath = pax[0];
+					paxLinkPath = pax[1];
+					paxSize = pax[2] != null ? Long.parseLong(pax[2]) : -1;
+				}
+				continue;
+			}
+			if (type == 'g') {
+				// global pax header, nothing in it affects where files go
+				readData(in, size);
+				continue;
+			}
+
+			String name = paxPath != null ? paxPath : longName != null ? longName : headerName();
+			String linkName = paxLinkPath != null ? paxLinkPath : longLink != null ? longLink : headerString(157,
+					100);
+			longName = longLink = paxPath = paxLinkPath = null;
+			paxSize = -1;
+			int mode = (int) parseNumber(header, 100, 8);
+
+			File file = resolve(name);
+			switch (type) {
+			case '5':
+				Files.createDirectories(file.toPath());
+				skip(in, size);
+				break;
+			case '2':
+				checkSymbolicLinkTarget(file, name, linkName);
+				symbolicLinks.add(new String[] { name, linkName });
+				break;
+			case '1':
+				hardLinks.add(new String[] { name, linkName });
+				break;
+			case '0':
+			case '\0':
+			case '7':
+				if (size <= MAX_BUFFERED_FILE_SIZE) {
+					writers.execute(new WriteFile(file, readData(in, size), mode));
+				} else {
+					writeLargeFile(in, file, size, mode);
+				}
+				files.incrementAndGet();
+				break;
+			default:
+				// character/block devices and fifos have no place in an environment
+				skip(in, size);
+				break;
+			}
+		}
+		throw new IOException("Unexpected end of archive");
+	}
+
+	private final class WriteFile implements Runnable {
+		private final File file;
+		private final byte[] contents;
+		private final int mode;
+
+		WriteFile(File file, byte[] contents, int mode) {
+			this.file = file;
+			this.contents = contents;
+			this.mode = mode;
+		}
+
+		@Override
+		public void run() {
+			if (writeFailure.get() != null) {
+				return;
+			}
+			try {
+				Files.createDirectories(file.getParentFile().toPath());
+				Files.write(file.toPath(), contents);
+				setMode(file, mode);
+			} catch (IOException e) {
+				writeFailure.compareAndSet(null, e);
+			}
+		}
+	}
+
+	private void writeLargeFile(InputStream in, File file, long size, int mode) throws IOException {
+		Files.createDirectories(file.getParentFile().toPath());
+		File part = new File(file.getPath() + ".part");
+		OutputStream out = new FileOutputStream(part);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			long remaining = size;
+			while (remaining > 0) {
+				int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n < 0) {
+					throw new IOException("Unexpected end of archive in " + file);
+				}
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		} finally {
+			out.close();
+		}
+		Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		setMode(file, mode);
+		skipPadding(in, size);
+	}
+
+	/**
+	 * Refuse a symbolic link that is absolute or, resolved from the directory it is in, leads outside the destination.
+	 */
+	private void checkSymbolicLinkTarget(File file, String name, String linkName) throws IOException {
+		Path target = new File(linkName).toPath();
+		if (target.isAbsolute()
+				|| !file.toPath().getParent().resolve(target).normalize().startsWith(destination.toPath())) {
+			throw new IOException("Archive entry '" + name + "' links to '" + linkName
+					+ "', outside of the destination");
+		}
+	}
+
+	/**
+	 * Create a symbolic link of the archive, once everything else is in place. The link is not created through another
+	 * symbolic link, and must really resolve inside the destination, which its name alone does not tell when it passes
+	 * through other links.
+	 */
+	private void createSymbolicLink(String name, String linkName) throws IOException {
+		Path file = resolve(name).toPath();
+		for (Path parent = file.getParent(); !parent.equals(destination.toPath()); parent = parent.getParent()) {
+			if (Files.isSymbolicLink(parent)) {
+				throw new IOException("Archive entry '" + name + "' is inside the symbolic link " + parent);
+			}
+		}
+		Files.createDirectories(file.getParent());
+		Files.deleteIfExists(file);
+		Files.createSymbolicLink(file, new File(linkName).toPath());
+		Path target;
+		try {
+			target = file.toRealPath();
+		} catch (IOException e) {
+			// a dangling link leads nowhere
+			return;
+		}
+		if (!target.startsWith(destination.toPath())) {
+			Files.delete(file);
+			throw new IOException("Archive entry '" + name + "' links to '" + linkName
+					+ "', outside of the destination");
+		}
+	}
+
+	private static void setMode(File file, int mode) {
+		if ((mode & 0111) != 0) {
+			file.setExecutable(true, (mode & 0011) == 0);
+		}
+	}
+
+	/**
+	 * @return the file for an archive entry, refusing names that would escape the destination
+	 */
+	private File resolve(String name) throws IOException {
+		// normalize rather than canonicalize, symbolic links in the archive must not be followed
+		Path path = destination.toPath().resolve(name).normalize();
+		if (!path.startsWith(destination.toPath())) {
+			throw new IOException("Archive entry '" + name + "' is outside of the destination");
+		}
+		return path.toFile();
+	}
+
+	private String headerName() {
+		String name = headerString(0, 100);
+		if (header[257] == 'u' && header[258] == 's' && header[259] == 't' && header[260] == 'a'
+				&& header[261] == 'r') {
+			String prefix = headerString(345, 155);
+			if (prefix.length() > 0) {
+				return prefix + "/" + name;
+			}
+		}
+		return name;
+	}
+
+	private String headerString(int offset, int length) {
+		int end = offset;
+		while (end < offset + length && header[end] != 0) {
+			end++;
+		}
+		return new String(header, offset, end - offset, UTF8);
+	}
+
+	/**
+	 * Parse an octal header field, or a base-256 one as GNU tar writes for sizes of 8 GB and above.
+	 */
+	private static long parseNumber(byte[] block, int offset, int length) {
+		if ((block[offset] & 0x80) != 0) {
+			long value = block[offset] & 0x7f;
+			for (int i = offset + 1; i < offset + length; i++) {
+				value = (value << 8) | (block[i] & 0xff);
+			}
+			return value;
+		}
+		long value = 0;
+		for (int i = offset; i < offset + length; i++) {
+			byte b = block[i];
+			if (b >= '0' && b <= '7') {
+				value = (value << 3) + (b - '0');
+			} else if (b == 0 || (b == ' ' && value != 0)) {
+				break;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * @return path, linkpath and size from a pax extended header, each <code>null</code> if not present
+	 */
+	private static String[] parsePax(byte[] data) {
+		String[] result = new String[3];
+		int position = 0;
+		while (position < data.length) {
+			int space = position;
+			while (space < data.length && data[space] != ' ') {
+				space++;
+			}
+			if (space >= data.length) {
+				break;
+			}
+			int length = Integer.parseInt(new String(data, position, space - position, UTF8));
+			if (length <= 0) {
+				break;
+			}
+			String record = new String(data, space + 1, position + length - space - 2, UTF8);
+			int equals = record.indexOf('=');
+			if (equals > 0) {
+				String key = record.substring(0, equals);
+				String value = record.substring(equals + 1);
+				if ("path".equals(key)) {
+					result[0] = value;
+				} else if ("linkpath".equals(key)) {
+					result[1] = value;
+				} else if ("size".equals(key)) {
+					result[2] = value;
+				}
+			}
+			position += length;
+		}
+		return result;
+	}
+
+	private static String trimNul(String s) {
+		int nul = s.indexOf('\0');
+		return nul >= 0 ? s.substring(0, nul) : s;
+	}
+
+	private static boolean isZeroBlock(byte[] block) {
+		for (byte b : block) {
+			if (b != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static byte[] readData(InputStream in, long size) throws IOException {
+		byte[] data = new byte[(int) size];
+		if (!readFully(in, data, data.length)) {
+			throw new IOException("Unexpected end of archive");
+		}
+		skipPadding(in, size);
+		return data;
+	}
+
+	private static void skip(InputStream in, long size) throws IOException {
+		skipBytes(in, size + padding(size));
+	}
+
+	private static void skipPadding(InputStream in, long size) throws IOException {
+		skipBytes(in, padding(size));
+	}
+
+	private static void skipBytes(InputStream in, long count) throws IOException {
+		long remaining = count;
+		while (remaining > 0) {
+			long n = in.skip(remaining);
+			if (n <= 0) {
+				if (in.read() < 0) {
+					throw new IOException("Unexpected end of archive");
+				}
+				n = 1;
+			}
+			remaining -= n;
+		}
+	}
+
+	private static long padding(long size) {
+		long remainder = size % BLOCK_SIZE;
+		return remainder == 0 ? 0 : BLOCK_SIZE - remainder;
+	}
+
+	/**
+	 * @return <code>false</code> if the stream ended before any of the bytes were read
+	 */
+	private static boolean readFully(InputStream in, byte[] buffer, int length) throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(buffer, read, length - read);
+			if (n < 0) {
+				if (read == 0) {
+					return false;
+				}
+				throw new IOException("Unexpected end of archive");
+			}
+			read += n;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,79 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.python.pydev.runners.SimpleRunner;
+
+/**
+ * A {@link ProcessLauncher} that records the processes an install runs to transcripts, or replays them from
+ * transcripts instead of running them, see {@link ProcessTranscript}.
+ * <p>
+ * Each process has its own transcript in a directory, named after the file name of the command and its sub-command
+ * if it has one, e.g. <code>conda-install.transcript</code>. A command run again in the same install is numbered in
+ * the order it is launched, e.g. <code>conda-install.2.transcript</code>, so one launcher records or replays one
+ * install. Replaying lets the progress, cancellation and output handling of an install be exercised without the
+ * network or the real installer, at the recorded pace or faster. The replayed processes do not touch the file system,
+ * so replaying a successful install needs an install directory that already holds the python executable the
+ * installer checks for.
+ */
+public final class TranscriptLauncher implements ProcessLauncher {
+
+	/**
+	 * Extension of transcript files
+	 */
+	public static final String EXTENSION = ".transcript";
+
+	private final File directory;
+	private final boolean record;
+	private final double speed;
+
+	/**
+	 * Number of processes launched so far under each name
+	 */
+	private final Map<String, Integer> launched = new HashMap<String, Integer>();
+
+	/**
+	 * @param directory
+	 *            directory holding the transcripts
+	 * @param record
+	 *            <code>true</code> to run the processes and record them, <code>false</code> to replay them
+	 * @param speed
+	 *            when replaying, how many times faster than recorded, 1 for the original timing and 0 for as fast as
+	 *            possible
+	 */
+	public TranscriptLauncher(File directory, boolean record, double speed) {
+		this.directory = directory;
+		this.record = record;
+		this.speed = speed;
+	}
+
+	@Override
+	public Process launch(String[] cmdarray, String[] envp, File workingDir) throws IOException {
+		String name = new File(cmdarray[0]).getName();
+		if (cmdarray.length > 1 && cmdarray[1].matches("[A-Za-z]+")) {
+			name = name + "-" + cmdarray[1];
+		}
+		File transcript = new File(directory, number(name) + EXTENSION);
+		if (record) {
+			directory.mkdirs();
+			return ProcessTranscript.record(SimpleRunner.createProcess(cmdarray, envp, workingDir), transcript);
+		}
+		if (!transcript.isFile()) {
+			throw new IOException("No transcript to replay for " + cmdarray[0] + ", expected " + transcript);
+		}
+		return ProcessTranscript.read(transcript).replay(speed);
+	}
+
+	/**
+	 * @return the name, numbered if a process of that name was launched before
+	 */
+	private synchronized String number(String name) {
+		Integer count = launched.get(name);
+		int n = count == null ? 1 : count + 1;
+		launched.put(name, n);
+		return n == 1 ? name : name + "." + n;
+	}
+}
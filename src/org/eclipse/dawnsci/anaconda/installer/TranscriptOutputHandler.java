@@ -0,0 +1,59 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Passes output on to a handler and appends it to the log in the install directory, for installers that do not run
+ * the Anaconda installer and so have no {@link InstallTranscript} of their own.
+ */
+final class TranscriptOutputHandler implements InstallOutputChunkHandler {
+
+	private final InstallOutputHandler handler;
+	private final InstallTranscript transcript;
+	private final InstallTranscript.Stream stream;
+
+	/**
+	 * @param handler
+	 *            handler to pass the output on to
+	 * @param installDir
+	 *            install directory the log is written to, once it exists
+	 */
+	TranscriptOutputHandler(InstallOutputHandler handler, File installDir) {
+		this.handler = handler;
+		this.transcript = new InstallTranscript(new File(installDir, InstallTranscript.LOG_FILE_NAME));
+		this.stream = transcript.openStream();
+	}
+
+	@Override
+	public void starting() {
+		handler.starting();
+	}
+
+	@Override
+	public void output(String string) {
+		transcript.log(string);
+		handler.output(string);
+	}
+
+	@Override
+	public void output(char[] chars, int offset, int length) {
+		stream.output(chars, offset, length);
+		OutputChunks.output(handler, chars, offset, length);
+	}
+
+	/**
+	 * Add the reason the install failed to the log.
+	 */
+	void failed(CoreException e) {
+		transcript.log("\n" + e.getStatus().getMessage() + "\n");
+	}
+
+	/**
+	 * Write out the log and close it.
+	 */
+	void close() {
+		transcript.close();
+	}
+}
@@ -0,0 +1,97 @@
+package org.eclipse.dawnsci.anaconda.installer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Deletes a directory tree, such as a partial installation, with the subdirectories deleted in parallel on a
+ * fork/join pool. An installation holds tens of thousands of small files, and deleting them one at a time is bound
+ * by the latency of each delete rather than by the disk.
+ * <p>
+ * Symbolic links are deleted, never followed.
+ */
+final class TreeDeleter {
+
+	private static final class DeleteTask extends RecursiveTask<Integer> {
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+
+		DeleteTask(Path dir) {
+			this.dir = dir;
+		}
+
+		/**
+		 * @return number of files and directories that could not be deleted
+		 */
+		@Override
+		protected Integer compute() {
+			int failures = 0;
+			List<DeleteTask> subtasks = new ArrayList<DeleteTask>();
+			try {
+				DirectoryStream<Path> entries = Files.newDirectoryStream(dir);
+				try {
+					for (Path entry : entries) {
+						if (Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)) {
+							DeleteTask subtask = new DeleteTask(entry);
+							subtask.fork();
+							subtasks.add(subtask);
+						} else if (!delete(entry)) {
+							failures++;
+						}
+					}
+				} finally {
+					entries.close();
+				}
+			} catch (IOException e) {
+				failures++;
+			}
+			for (DeleteTask subtask : subtasks) {
+				failures += subtask.join();
+			}
+			if (failures == 0 && !delete(dir)) {
+				failures++;
+			}
+			return failures;
+		}
+	}
+
+	private TreeDeleter() {
+	}
+
+	/**
+	 * Delete a directory and everything in it.
+	 *
+	 * @return <code>true</code> if everything was deleted
+	 */
+	static boolean delete(File root) {
+		Path path = root.toPath();
+		if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			return delete(path);
+		}
+		// deletes wait on the file system more than on the processor
+		ForkJoinPool pool = new ForkJoinPool(2 * Runtime.getRuntime().availableProcessors());
+		try {
+			return pool.invoke(new DeleteTask(path)).intValue() == 0;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private static boolean delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+}
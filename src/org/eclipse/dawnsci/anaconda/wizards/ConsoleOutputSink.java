@@ -0,0 +1,140 @@
+package org.eclipse.dawnsci.anaconda.wizards;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.dawnsci.anaconda.installer.InstallMetricsListener;
+import org.eclipse.dawnsci.anaconda.installer.InstallOutputHandler;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Text;
+
+/**
+ * An {@link InstallOutputHandler} that displays output in a {@link Text} widget.
+ * <p>
+ * Output can arrive from any thread at a very high rate, so rather than posting a UI runnable per call the output is
+ * collected in a lock-free queue and appended to the widget in one go at most once every {@link #FLUSH_INTERVAL_MS}.
+ * The widget only keeps the last {@link #MAX_CHARS} characters so that its memory use stays flat regardless of how
+ * much the installer prints.
+ */
+class ConsoleOutputSink implements InstallOutputHandler {
+
+	/**
+	 * Minimum time between two updates of the widget
+	 */
+	static final int FLUSH_INTERVAL_MS = 100;
+
+	/**
+	 * Maximum number of characters of scrollback kept in the widget
+	 */
+	static final int MAX_CHARS = 256 * 1024;
+
+	/**
+	 * When {@link #MAX_CHARS} is exceeded the oldest output is dropped down to this many characters, so trimming does
+	 * not happen on every flush
+	 */
+	private static final int TRIM_TO_CHARS = MAX_CHARS * 3 / 4;
+
+	private final Display display;
+	private final Text text;
+	private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<String>();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile InstallMetricsListener metrics;
+
+	/**
+	 * Only accessed on the UI thread
+	 */
+	private long lastFlush;
+
+	private final Runnable flush = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+
+	private final Runnable scheduleFlush = new Runnable() {
+		@Override
+		public void run() {
+			long wait = lastFlush + FLUSH_INTERVAL_MS - System.currentTimeMillis();
+			if (wait > 0) {
+				display.timerExec((int) wait, flush);
+			} else {
+				flush();
+			}
+		}
+	};
+
+	ConsoleOutputSink(Display display, Text text) {
+		this.display = display;
+		this.text = text;
+	}
+
+	/**
+	 * @param metrics
+	 *            counts each update of the widget as <code>ui.flushes</code>, or <code>null</code>
+	 */
+	void setMetrics(InstallMetricsListener metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void starting() {
+		pending.clear();
+		display.asyncExec(new Runnable() {
+
+			@Override
+			public void run() {
+				if (!text.isDisposed()) {
+					text.setText("");
+				}
+			}
+		});
+	}
+
+	@Override
+	public void output(String string) {
+		if (string.length() == 0) {
+			return;
+		}
+		pending.add(string);
+		if (flushScheduled.compareAndSet(false, true)) {
+			display.asyncExec(scheduleFlush);
+		}
+	}
+
+	/**
+	 * Append everything queued so far to the widget. Must be called on the UI thread.
+	 */
+	private void flush() {
+		// Clear the flag before draining so that output queued from now on schedules another flush
+		flushScheduled.set(false);
+		lastFlush = System.currentTimeMillis();
+
+		StringBuilder sb = new StringBuilder();
+		String string;
+		while ((string = pending.poll()) != null) {
+			sb.append(string);
+		}
+		if (sb.length() == 0 || text.isDisposed()) {
+			return;
+		}
+
+		if (sb.length() > TRIM_TO_CHARS) {
+			text.setText(sb.substring(sb.length() - TRIM_TO_CHARS));
+		} else {
+			int count = text.getCharCount();
+			if (count + sb.length() > MAX_CHARS) {
+				int keepFrom = count + sb.length() - TRIM_TO_CHARS;
+				text.setText(text.getText(keepFrom, count - 1));
+			}
+			text.append(sb.toString());
+		}
+		text.setSelection(text.getCharCount());
+
+		InstallMetricsListener metrics = this.metrics;
+		if (metrics != null) {
+			metrics.count("ui.flushes", 1);
+			metrics.count("ui.chars", sb.length());
+		}
+	}
+}
@@ -1,9 +1,17 @@
 package org.eclipse.dawnsci.anaconda.wizards;
 
 import java.io.File;
+import java.util.Collections;
+import java.util.List;
 
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Path;
+import org.eclipse.dawnsci.anaconda.installer.DestinationPreflight;
+import org.eclipse.dawnsci.anaconda.installer.InstallMetricsListener;
 import org.eclipse.dawnsci.anaconda.installer.InstallOutputHandler;
+import org.eclipse.dawnsci.anaconda.installer.Installer;
+import org.eclipse.dawnsci.anaconda.installer.PackageProfile;
 import org.eclipse.jface.resource.JFaceResources;
 import org.eclipse.jface.wizard.WizardPage;
 import org.eclipse.swt.SWT;
@@ -16,21 +24,50 @@ import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.DirectoryDialog;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Text;
-import org.python.pydev.shared_core.utils.PlatformUtils;
 
 public class DestinationPage extends WizardPage {
 
 	private static final String SELECT_DESTINATION_DESCRIPTION = "Select destination directory for Anaconda";
+
+	/**
+	 * How long typing has to pause before the destination is checked
+	 */
+	private static final int VALIDATION_DELAY_MS = 300;
+
+	/**
+	 * Checks the destination on the file system, off the UI thread
+	 */
+	private final DestinationPreflight preflight = new DestinationPreflight();
+	private final Runnable validateDestination = new Runnable() {
+		@Override
+		public void run() {
+			startValidation();
+		}
+	};
+
+	/**
+	 * Incremented on each change to the destination, so the result of checking an earlier one is dropped. Only
+	 * touched on the UI thread.
+	 */
+	private int validation;
 	private Text installLocationText;
-	private InstallOutputHandler outputHandler;
+	private ConsoleOutputSink outputHandler;
 	private Text installOutputText;
 	private Button closeWizardOnSuccess;
 	private Button installBrowseButton;
+	private Combo profileCombo;
+	private List<PackageProfile> profiles;
+
+	/**
+	 * Why the package profiles could not be read, <code>null</code> if they were
+	 */
+	private String profileError;
 
 	protected DestinationPage() {
 		super("Install Destination");
@@ -47,6 +84,7 @@ public class DestinationPage extends WizardPage {
 		container.setLayout(layout);
 
 		createInstallLocationGroup(container);
+		createPackageProfileGroup(container);
 		
 		Label installOutputLabel = new Label(container, SWT.NONE);
 		installOutputLabel.setText("Installation Output:");
@@ -106,7 +144,49 @@ public class DestinationPage extends WizardPage {
 		setButtonLayoutData(installBrowseButton);
 	}
 
+	private void createPackageProfileGroup(Composite parent) {
+		PackageProfile selected;
+		try {
+			profiles = PackageProfile.getProfiles();
+			selected = PackageProfile.getDefault();
+		} catch (CoreException e) {
+			profileError = e.getStatus().getMessage();
+			profiles = Collections.singletonList(PackageProfile.FULL);
+			selected = PackageProfile.FULL;
+		}
+
+		Composite profileGroup = new Composite(parent, SWT.NONE);
+		GridLayout layout = new GridLayout();
+		layout.numColumns = 2;
+		profileGroup.setLayout(layout);
+		profileGroup.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL));
+
+		Label profileLabel = new Label(profileGroup, SWT.NONE);
+		profileLabel.setText("Packages:");
+
+		profileCombo = new Combo(profileGroup, SWT.DROP_DOWN | SWT.READ_ONLY);
+		profileCombo.setLayoutData(new GridData(GridData.HORIZONTAL_ALIGN_FILL | GridData.GRAB_HORIZONTAL));
+		for (PackageProfile profile : profiles) {
+			profileCombo.add(profile.getLabel());
+		}
+		profileCombo.select(profiles.indexOf(selected));
+
+		// The disk space needed depends on the profile, so the destination is checked again
+		profileCombo.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				dialogChanged();
+			}
+		});
+	}
+
 	private void dialogChanged() {
+		if (profileError != null) {
+			setErrorMessage(profileError);
+			setPageComplete(false);
+			return;
+		}
+
 		String installLoc = installLocationText.getText();
 		if (installLoc.length() == 0) {
 			setErrorMessage(SELECT_DESTINATION_DESCRIPTION);
@@ -127,20 +207,58 @@ public class DestinationPage extends WizardPage {
 			return;
 		}
 		
-		File installLocFile = installLocPath.toFile();
-		if (installLocFile.exists() && !installLocFile.isDirectory()) {
-			setErrorMessage("Selected destination already exists, but is not a directory");
+		// The rest needs the file system, which may be slow, so is checked in the background once typing pauses
+		validation++;
+		setErrorMessage(null);
+		setMessage("Checking destination...");
+		setPageComplete(false);
+		Display display = installLocationText.getDisplay();
+		display.timerExec(-1, validateDestination);
+		display.timerExec(VALIDATION_DELAY_MS, validateDestination);
+	}
+
+	private void startValidation() {
+		if (installLocationText.isDisposed()) {
+			return;
+		}
+		final int started = validation;
+		final File installLocFile = new Path(installLocationText.getText()).toFile();
+		final long installSize = getPackageProfile().getSize();
+		final Display display = installLocationText.getDisplay();
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				final IStatus status = preflight.check(installLocFile, installSize);
+				display.asyncExec(new Runnable() {
+					@Override
+					public void run() {
+						if (!installLocationText.isDisposed() && installLocationText.getEditable()
+								&& started == validation) {
+							validationDone(status);
+						}
+					}
+				});
+			}
+		}, "Anaconda Destination Check");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void validationDone(IStatus status) {
+		if (status.getSeverity() == IStatus.ERROR) {
+			setMessage(null);
+			setErrorMessage(status.getMessage());
 			setPageComplete(false);
 			return;
 		}
-	
-		if (installLocFile.exists() && installLocFile.isDirectory()) {
+
+		if (status.getSeverity() == IStatus.WARNING) {
 			setErrorMessage(null);
-			setMessage("Selected destination already exists. Installing into this directory might overwrite existing files.", WARNING);
+			setMessage(status.getMessage(), WARNING);
 			setPageComplete(true);
 			return;
-		} 
-	
+		}
+
 		setMessage(null);
 		setErrorMessage(null);
 		setPageComplete(true);
@@ -164,64 +282,50 @@ public class DestinationPage extends WizardPage {
 		return installLocationText.getText();
 	}
 	
+	/**
+	 * @return the packages to install
+	 */
+	public PackageProfile getPackageProfile() {
+		int index = profileCombo.getSelectionIndex();
+		return index >= 0 ? profiles.get(index) : PackageProfile.FULL;
+	}
+
 	public boolean getCloseWizardOnSuccess() {
 		return closeWizardOnSuccess.getSelection();
 	}
 
 	public InstallOutputHandler getOutputHandler() {
 		if (outputHandler == null) {
-			outputHandler = new InstallOutputHandler() {
-				
-				@Override
-				public void output(final String string) {
-					Display.getDefault().asyncExec(new Runnable() {
-						
-						@Override
-						public void run() {
-							installOutputText.append(string);
-							installOutputText.setSelection(installOutputText.getCharCount());
-						}
-					});
-				}
-
-				@Override
-				public void starting() {
-					Display.getDefault().asyncExec(new Runnable() {
-						
-						@Override
-						public void run() {
-							installOutputText.setText("");
-						}
-					});
-					
-				}
-			};
+			outputHandler = new ConsoleOutputSink(Display.getDefault(), installOutputText);
 		}
 		return outputHandler;
 	}
 
+	/**
+	 * @param metrics
+	 *            records the number of updates made to the output console
+	 */
+	public InstallOutputHandler getOutputHandler(InstallMetricsListener metrics) {
+		getOutputHandler();
+		outputHandler.setMetrics(metrics);
+		return outputHandler;
+	}
+
 	public void setReadOnly() {
 		installLocationText.setEditable(false);
 		closeWizardOnSuccess.setEnabled(false);
 		installBrowseButton.setEnabled(false);
+		profileCombo.setEnabled(false);
 		setErrorMessage(null);
 		setMessage("Installation Complete. Please press Finish again to close the wizard.");
 	}
 
 
+	/**
+	 * @return the location the wizard offers to install to
+	 */
 	protected String getDefaultInstallLocation() {
-		if (PlatformUtils.isWindowsPlatform()) {
-			// default installation path on Windows
-			return "C:\\Python27";
-		}
-		// install to home directory on non-Windows
-		try {
-			String home = System.getenv("HOME");
-			return home + File.separatorChar + "anacondaWizardInstall";
-		} catch (Exception e) {
-			// can't get home directory, default to empty directory
-			return "";
-		}
+		return Installer.getDefaultInstallLocation();
 	}
 
 
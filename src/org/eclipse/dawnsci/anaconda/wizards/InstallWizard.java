@@ -8,8 +8,11 @@ import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
 import org.eclipse.dawnsci.anaconda.Activator;
 import org.eclipse.dawnsci.anaconda.InterpreterProvider;
+import org.eclipse.dawnsci.anaconda.installer.IInstaller;
+import org.eclipse.dawnsci.anaconda.installer.InstallMetrics;
 import org.eclipse.dawnsci.anaconda.installer.InstallOutputHandler;
 import org.eclipse.dawnsci.anaconda.installer.Installer;
+import org.eclipse.dawnsci.anaconda.installer.PackageProfile;
 import org.eclipse.jface.dialogs.ErrorDialog;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.wizard.IWizard;
@@ -72,12 +75,14 @@ public class InstallWizard extends Wizard {
 		}
 
 		final String installPath = destinationPage.getInstallPath();
-		final InstallOutputHandler handler = destinationPage.getOutputHandler();
+		InstallMetrics metrics = new InstallMetrics();
+		final InstallOutputHandler handler = destinationPage.getOutputHandler(metrics);
+		final IInstaller installer = createInstaller(metrics, destinationPage.getPackageProfile());
 		IRunnableWithProgress op = new IRunnableWithProgress() {
 			@Override
 			public void run(IProgressMonitor monitor) throws InvocationTargetException {
 				try {
-					new Installer().runInstall(installPath, monitor, handler, interpreterProvider);
+					installer.runInstall(installPath, monitor, handler, interpreterProvider);
 				} catch (CoreException e) {
 					throw new InvocationTargetException(e);
 				} finally {
@@ -112,5 +117,12 @@ public class InstallWizard extends Wizard {
 		return false;
 	}
 
+	private static IInstaller createInstaller(InstallMetrics metrics, PackageProfile packageProfile) {
+		Installer installer = new Installer(null);
+		installer.setMetrics(metrics);
+		installer.setPackageProfile(packageProfile);
+		return installer;
+	}
+
 }
 